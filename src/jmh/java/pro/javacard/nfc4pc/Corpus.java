@@ -0,0 +1,98 @@
+package pro.javacard.nfc4pc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Tag payloads fed to the benchmarks. Message bytes are what msg2url sees, tag images what the readers return.
+final class Corpus {
+    private Corpus() {
+    }
+
+    // Single short URI record, the typical sticker
+    static final byte[] SHORT = uri(0x04, "nfc4pc.example.com/t/0123456789");
+    // Single URI record with a 4-byte payload length (SR bit cleared)
+    static final byte[] LONG = uri(0x04, "nfc4pc.example.com/t/" + "0123456789abcdef".repeat(20));
+    // Smart Poster with an embedded URI record
+    static final byte[] SMART_POSTER = smartPoster(SHORT);
+    // Text record, well-formed but not a URL
+    static final byte[] TEXT = record(0xD1, 'T', "\u0002enHello, World!".getBytes(StandardCharsets.UTF_8));
+    // URI record cut short in the middle of the payload
+    static final byte[] TRUNCATED = Arrays.copyOf(SHORT, SHORT.length - 2);
+    // URI record claiming a payload length larger than any tag
+    static final byte[] OVERSIZED = length(LONG, 0x7FFFFFF0);
+
+    static byte[] message(String name) {
+        return switch (name) {
+            case "short" -> SHORT;
+            case "long" -> LONG;
+            case "smartposter" -> SMART_POSTER;
+            case "text" -> TEXT;
+            case "truncated" -> TRUNCATED;
+            case "oversized" -> OVERSIZED;
+            default -> throw new IllegalArgumentException("Unknown corpus entry: " + name);
+        };
+    }
+
+    static byte[] uri(int prefix, String rest) {
+        byte[] r = rest.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[r.length + 1];
+        payload[0] = (byte) prefix;
+        System.arraycopy(r, 0, payload, 1, r.length);
+        return record(payload.length > 255 ? 0xC1 : 0xD1, 'U', payload);
+    }
+
+    static byte[] smartPoster(byte[] inner) {
+        byte[] nested = inner.clone();
+        return record(0xD1, 0x5370, nested);
+    }
+
+    // Well-known record with MB/ME set; SR decided by the header
+    static byte[] record(int header, int type, byte[] payload) {
+        byte[] t = type > 0xFF ? new byte[]{(byte) (type >> 8), (byte) type} : new byte[]{(byte) type};
+        boolean sr = (header & 0x10) == 0x10;
+        ByteBuffer b = ByteBuffer.allocate(2 + (sr ? 1 : 4) + t.length + payload.length);
+        b.put((byte) header);
+        b.put((byte) t.length);
+        if (sr)
+            b.put((byte) payload.length);
+        else
+            b.putInt(payload.length);
+        b.put(t);
+        b.put(payload);
+        return b.array();
+    }
+
+    // Same long record with another PAYLOAD_LENGTH
+    static byte[] length(byte[] msg, int length) {
+        return ByteBuffer.wrap(msg.clone()).putInt(2, length).array();
+    }
+
+    // Payload of the first record, as much of it as there is
+    static byte[] payload(byte[] msg) {
+        boolean sr = (msg[0] & 0x10) == 0x10;
+        int typelen = msg[1] & 0xFF;
+        long len = sr ? msg[2] & 0xFF : ByteBuffer.wrap(msg).getInt(2) & 0xFFFFFFFFL;
+        int offset = (sr ? 3 : 6) + typelen;
+        return Arrays.copyOfRange(msg, offset, (int) Math.min(msg.length, offset + len));
+    }
+
+    // Type 2 data area: lock control TLV, NDEF TLV and terminator
+    static byte[] type2(byte[] msg) {
+        ByteBuffer b = ByteBuffer.allocate(5 + 4 + msg.length + 1);
+        b.put(new byte[]{0x01, 0x03, (byte) 0xA0, 0x0C, 0x34});
+        if (msg.length < 0xFF) {
+            b.put((byte) 0x03).put((byte) msg.length);
+        } else {
+            b.put((byte) 0x03).put((byte) 0xFF).putShort((short) msg.length);
+        }
+        b.put(msg);
+        b.put((byte) 0xFE);
+        return b.array();
+    }
+
+    // Type 4 NDEF file: NLEN and message
+    static byte[] type4(byte[] msg) {
+        return ByteBuffer.allocate(2 + msg.length).putShort((short) msg.length).put(msg).array();
+    }
+}
@@ -0,0 +1,65 @@
+package pro.javacard.nfc4pc;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Parsing part of a tap. Failing payloads are part of the corpus, so exceptions are consumed like results.
+// Run with -prof gc (default in the jmh profile) to see allocation per operation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NDEFBenchmark {
+
+    @Param({"short", "long", "smartposter", "text", "truncated", "oversized"})
+    public String payload;
+
+    byte[] message;
+    byte[] record;
+    byte[] type2;
+    byte[] type4;
+
+    @Setup
+    public void setup() {
+        message = Corpus.message(payload);
+        type2 = Corpus.type2(message);
+        type4 = Corpus.type4(message);
+        record = Corpus.payload(message);
+    }
+
+    @Benchmark
+    public void msg2url(Blackhole bh) {
+        try {
+            bh.consume(NDEF.msg2url(message));
+        } catch (IllegalArgumentException e) {
+            bh.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void type2_to_message(Blackhole bh) {
+        try {
+            bh.consume(NDEF.type2_to_message(type2));
+        } catch (RuntimeException e) {
+            bh.consume(e);
+        }
+    }
+
+    @Benchmark
+    public byte[] type4_to_message() {
+        return NDEF.type4_to_message(type4);
+    }
+
+    @Benchmark
+    public void record2url(Blackhole bh) {
+        try {
+            bh.consume(NDEF.record2url(record));
+        } catch (IllegalArgumentException e) {
+            bh.consume(e);
+        }
+    }
+}
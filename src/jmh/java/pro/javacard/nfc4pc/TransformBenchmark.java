@@ -0,0 +1,50 @@
+package pro.javacard.nfc4pc;
+
+import joptsimple.OptionSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+// URL construction part of a tap
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    @Param({"url", "uid-url", "meta-url"})
+    public String mode;
+
+    static final UID TAG = UID.of(new byte[]{0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66});
+
+    OptionSet opts;
+    String location;
+    URI base;
+
+    @Setup
+    public void setup() {
+        opts = switch (mode) {
+            case "url" -> CLIOptions.parser.parse();
+            case "uid-url" -> CLIOptions.parser.parse("--uid-url", "https://example.com/badge?site=1");
+            case "meta-url" -> CLIOptions.parser.parse("--meta-url", "https://example.com/meta");
+            default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+        };
+        location = mode.equals("uid-url") ? null : NDEF.msg2url(Corpus.SHORT);
+        base = URI.create("https://example.com/meta?site=1");
+    }
+
+    // A fresh tap every time, as the URI is parsed once per tap and kept
+    @Benchmark
+    public URI transform() throws URISyntaxException {
+        return NFC4PC.transform(new NFCTapData("ACS ACR122U 00 00", TAG, location, 42_000_000, null), opts);
+    }
+
+    @Benchmark
+    public URI appendUri() throws URISyntaxException {
+        return NFC4PC.appendUri(base, "uid", "04112233445566");
+    }
+}
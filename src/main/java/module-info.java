@@ -6,6 +6,8 @@ module pro.javacard.nfc4pc {
     requires apdu4j.core;
     requires java.desktop;
     requires java.net.http;
+    requires jdk.httpserver;
+    requires jdk.jfr;
     requires org.slf4j;
     requires com.dustinredmond.fxtrayicon;
     requires com.sun.jna;
@@ -14,4 +16,6 @@ module pro.javacard.nfc4pc {
     requires com.google.zxing;
 
     exports pro.javacard.nfc4pc;
+
+    uses pro.javacard.nfc4pc.TapProcessor;
 }
\ No newline at end of file
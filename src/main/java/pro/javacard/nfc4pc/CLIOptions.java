@@ -5,6 +5,7 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.List;
@@ -17,13 +18,33 @@ public abstract class CLIOptions {
     protected static OptionSpec<Void> OPT_DEBUG = parser.acceptsAll(List.of("d", "debug"), "Show debugging logs");
     protected static OptionSpec<Void> OPT_DESKTOP = parser.acceptsAll(List.of("desktop"), "Run as system tray item");
     protected static OptionSpec<Void> OPT_CONTINUE = parser.acceptsAll(List.of("c", "continue"), "Read continuously");
+    protected static OptionSpec<String> OPT_JSON = parser.acceptsAll(List.of("json"), "Write taps as JSON lines, to stdout, a file, named pipe or Unix socket").availableIf(OPT_CONTINUE).withOptionalArg().describedAs("path|unix:path");
     protected static OptionSpec<Void> OPT_CLEAR = parser.acceptsAll(List.of("C", "clear"), "Clear screen and read continuously").availableIf(OPT_CONTINUE);
+    protected static OptionSpec<Void> OPT_EVENTS = parser.acceptsAll(List.of("events"), "Detect taps from PC/SC card events");
+    protected static OptionSpec<Integer> OPT_SUPPRESS = parser.acceptsAll(List.of("suppress"), "Ignore repeated taps of a tag within X milliseconds (0 for off)").withRequiredArg().ofType(Integer.class).defaultsTo(0);
     protected static OptionSpec<URI> OPT_UID_URL = parser.acceptsAll(List.of("uid-url"), "Launch UID-s at given URL").withRequiredArg().ofType(URI.class);
-    protected static OptionSpec<URI> OPT_WEBHOOK = parser.acceptsAll(List.of("webhook"), "Post data to webhook").withRequiredArg().ofType(URI.class);
-    protected static OptionSpec<String> OPT_AUTHORIZATION = parser.acceptsAll(List.of("authorization"), "Authorization header for webhook").availableIf(OPT_WEBHOOK).withRequiredArg();
+    protected static OptionSpec<Integer> OPT_TAG_CACHE = parser.acceptsAll(List.of("tag-cache"), "Remember contents of N read-only tags").withOptionalArg().ofType(Integer.class).describedAs("N").defaultsTo(TapCache.DEFAULT_SIZE);
+    protected static OptionSpec<File> OPT_UID_TABLE = parser.acceptsAll(List.of("uid-table"), "Look up URL-s of UID-s from file").withRequiredArg().ofType(File.class);
+    protected static OptionSpec<URI> OPT_WEBHOOK = parser.acceptsAll(List.of("webhook"), "Post data to webhook (can be repeated)").withRequiredArg().ofType(URI.class);
+    protected static OptionSpec<String> OPT_AUTHORIZATION = parser.acceptsAll(List.of("authorization"), "Authorization header for webhook (per webhook)").availableIf(OPT_WEBHOOK).withRequiredArg();
+    protected static OptionSpec<Integer> OPT_WEBHOOK_INFLIGHT = parser.acceptsAll(List.of("webhook-inflight"), "Concurrent webhook requests (per webhook)").availableIf(OPT_WEBHOOK).withRequiredArg().ofType(Integer.class).defaultsTo(4);
+    protected static OptionSpec<Integer> OPT_WEBHOOK_QUEUE = parser.acceptsAll(List.of("webhook-queue"), "Taps waiting for webhook delivery (per webhook)").availableIf(OPT_WEBHOOK).withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+    protected static OptionSpec<String> OPT_WEBHOOK_OVERFLOW = parser.acceptsAll(List.of("webhook-overflow"), "When webhook queue is full").availableIf(OPT_WEBHOOK).withRequiredArg().describedAs("block|drop-oldest|spill").defaultsTo("block");
+    protected static OptionSpec<File> OPT_WEBHOOK_SPILL = parser.acceptsAll(List.of("webhook-spill"), "Spill file for webhook overflow").availableIf(OPT_WEBHOOK).withRequiredArg().ofType(File.class);
+    protected static OptionSpec<String> OPT_WEBHOOK_FORMAT = parser.acceptsAll(List.of("webhook-format"), "Webhook body").availableIf(OPT_WEBHOOK).withRequiredArg().describedAs("form|json|cbor").defaultsTo("form");
+    protected static OptionSpec<Integer> OPT_WEBHOOK_RETRIES = parser.acceptsAll(List.of("webhook-retries"), "Retries of a failed webhook").availableIf(OPT_WEBHOOK).withRequiredArg().ofType(Integer.class).defaultsTo(3);
+    protected static OptionSpec<Integer> OPT_WEBHOOK_BATCH = parser.acceptsAll(List.of("webhook-batch"), "Send up to N taps per webhook request").availableIf(OPT_WEBHOOK).withRequiredArg().ofType(Integer.class).defaultsTo(1);
+    protected static OptionSpec<Integer> OPT_WEBHOOK_LINGER = parser.acceptsAll(List.of("webhook-linger"), "Milliseconds to wait for a webhook batch to fill").availableIf(OPT_WEBHOOK_BATCH).withRequiredArg().ofType(Integer.class).defaultsTo(200);
+    protected static OptionSpec<String> OPT_WEBHOOK_BATCH_FORMAT = parser.acceptsAll(List.of("webhook-batch-format"), "Webhook batch body").availableIf(OPT_WEBHOOK_BATCH).withRequiredArg().describedAs("json|ndjson|cbor").defaultsTo("json");
+    protected static OptionSpec<File> OPT_WEBHOOK_SPOOL = parser.acceptsAll(List.of("webhook-spool"), "Keep undelivered webhooks in directory").availableIf(OPT_WEBHOOK).withRequiredArg().ofType(File.class);
+    protected static OptionSpec<Integer> OPT_WEBHOOK_SPOOL_SIZE = parser.acceptsAll(List.of("webhook-spool-size"), "Webhook spool size limit in MB").availableIf(OPT_WEBHOOK_SPOOL).withRequiredArg().ofType(Integer.class).defaultsTo(64);
+    protected static OptionSpec<String> OPT_METRICS = parser.acceptsAll(List.of("metrics"), "Serve metrics at /metrics (with -c, --headless or --desktop)").withRequiredArg().describedAs("[host:]port");
     protected static OptionSpec<URI> OPT_META_URL = parser.acceptsAll(List.of("meta-url"), "Launch all tags at given URL").availableUnless(OPT_WEBHOOK, OPT_UID_URL).withRequiredArg().ofType(URI.class);
-    protected static OptionSpec<Void> OPT_HEADLESS = parser.acceptsAll(List.of("headless"), "Run in headless (webhook-only) mode").availableIf(OPT_WEBHOOK).availableUnless(OPT_DESKTOP);
-    protected static OptionSpec<String> OPT_BROWSER = parser.acceptsAll(List.of("browser"), "Execute browser").availableUnless(OPT_WEBHOOK).withOptionalArg().describedAs("path");
+    protected static OptionSpec<String> OPT_STREAM = parser.acceptsAll(List.of("stream"), "Stream taps as Server-Sent Events at /taps (with -c, --headless or --desktop)").withRequiredArg().describedAs("[host:]port");
+    protected static OptionSpec<Void> OPT_PLUGINS = parser.acceptsAll(List.of("plugins"), "Pass taps to TapProcessor plugins on the module path");
+    protected static OptionSpec<Integer> OPT_SINK_TIMEOUT = parser.acceptsAll(List.of("sink-timeout"), "Seconds an output may spend on a tap").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+    protected static OptionSpec<Void> OPT_HEADLESS = parser.acceptsAll(List.of("headless"), "Run in headless (webhook, stream or plugin only) mode").availableIf(OPT_WEBHOOK, OPT_STREAM, OPT_PLUGINS).availableUnless(OPT_DESKTOP);
+    protected static OptionSpec<String> OPT_BROWSER = parser.acceptsAll(List.of("browser"), "Execute browser").withOptionalArg().describedAs("path");
     protected static OptionSpec<URI> OPT_QR = parser.acceptsAll(List.of("qrcode"), "Show QR code").availableUnless(OPT_DESKTOP, OPT_HEADLESS).withOptionalArg().ofType(URI.class);
     protected static OptionSpec<URI> OPT_GO = parser.acceptsAll(List.of("go"), "Go to URL").availableUnless(OPT_DESKTOP, OPT_HEADLESS).withRequiredArg().ofType(URI.class);
     protected static OptionSpec<Integer> OPT_TIMEOUT = parser.acceptsAll(List.of("timeout"), "Time out after X seconds").availableUnless(OPT_DESKTOP, OPT_HEADLESS).withRequiredArg().ofType(Integer.class).defaultsTo(30);
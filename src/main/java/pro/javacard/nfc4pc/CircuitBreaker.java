@@ -0,0 +1,86 @@
+package pro.javacard.nfc4pc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+// Stops calling an endpoint after consecutive failures. After a cool down a single trial request
+// is let through: success closes the breaker, failure opens it again.
+public class CircuitBreaker {
+    static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int threshold;
+    private final long cooldown;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    // Transitions into each state
+    final LongAdder opened = new LongAdder();
+    final LongAdder halfOpened = new LongAdder();
+    final LongAdder closed = new LongAdder();
+
+    public CircuitBreaker(String name, int threshold, Duration cooldown) {
+        this.name = name;
+        this.threshold = threshold;
+        this.cooldown = cooldown.toNanos();
+    }
+
+    // True if a request may be made now
+    public synchronized boolean allow() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> {
+                if (System.nanoTime() - openedAt < cooldown)
+                    yield false;
+                transition(State.HALF_OPEN);
+                yield true;
+            }
+            // Trial request is out
+            case HALF_OPEN -> false;
+        };
+    }
+
+    public synchronized void success() {
+        failures = 0;
+        if (state != State.CLOSED)
+            transition(State.CLOSED);
+    }
+
+    public synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= threshold)) {
+            openedAt = System.nanoTime();
+            transition(State.OPEN);
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    // Time until a trial request is allowed, zero if not open
+    public synchronized Duration retryIn() {
+        if (state != State.OPEN)
+            return Duration.ZERO;
+        return Duration.ofNanos(Math.max(0, openedAt + cooldown - System.nanoTime()));
+    }
+
+    private void transition(State to) {
+        log.info("Circuit breaker for {}: {} -> {}", name, state, to);
+        state = to;
+        switch (to) {
+            case OPEN -> opened.increment();
+            case HALF_OPEN -> halfOpened.increment();
+            case CLOSED -> closed.increment();
+        }
+    }
+}
@@ -22,7 +22,7 @@ public class DesktopApp extends Application {
 
     // GUI option
     private void setTooltip() {
-        String msg = String.format("NFC4PC: %d actions for %d taps", MainWrapper.urlCounter.get() + MainWrapper.uidCounter.get() + MainWrapper.metaCounter.get() + MainWrapper.webhookCounter.get(), MainWrapper.tapCounter.get());
+        String msg = String.format("NFC4PC: %d actions for %d taps", MainWrapper.urlCounter.sum() + MainWrapper.uidCounter.sum() + MainWrapper.metaCounter.sum() + MainWrapper.webhookCounter.sum(), MainWrapper.tapCounter.sum());
         // Called from init, thus can be null
         if (icon != null)
             icon.setTrayIconTooltip(msg);
@@ -41,6 +41,7 @@ public class DesktopApp extends Application {
             System.err.println("Exiting nfc4pc");
             if (shutdownHook != null)
                 Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            app.close();
             MainWrapper.sendStatistics();
             Platform.exit(); // shutdown
             System.exit(0); // Exit
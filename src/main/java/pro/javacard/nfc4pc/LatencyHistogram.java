@@ -0,0 +1,87 @@
+package pro.javacard.nfc4pc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of nanosecond latencies in fixed memory. Values below 32 have a bucket each, above that
+// every power of two is split into 16 buckets, which keeps the error within 1/16 of the value.
+// The last power of two starts at 2^40 ns, about 18 minutes, and values from 31 * 2^36 ns, about 35 minutes,
+// are counted in the last bucket. A histogram is mostly written by one thread at a time, so buckets are plain
+// atomics. Count and sum, which every value touches, are striped.
+public final class LatencyHistogram {
+    static final int SUB_BITS = 4;
+    static final int SUB = 1 << SUB_BITS;
+    static final int MAX_MAGNITUDE = 40;
+    static final int BUCKETS = 2 * SUB + (MAX_MAGNITUDE - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            return;
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    static int index(long v) {
+        if (v < 2 * SUB)
+            return (int) v;
+        int magnitude = 63 - Long.numberOfLeadingZeros(v);
+        if (magnitude > MAX_MAGNITUDE)
+            return BUCKETS - 1;
+        int shift = magnitude - SUB_BITS;
+        return 2 * SUB + (magnitude - SUB_BITS - 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    // Largest value that lands in the bucket
+    static long highest(int index) {
+        if (index < 2 * SUB)
+            return index;
+        int i = index - 2 * SUB;
+        int shift = i / SUB + 1;
+        long sub = SUB + i % SUB;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // Value at or below which the given fraction of recorded values are
+    public long percentile(double q) {
+        long total = count.sum();
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+    // Number of values up to the given one. Whole buckets are counted, so the bound is off by up to 1/16
+    public long countBelow(long nanos) {
+        int last = nanos < 0 ? -1 : index(nanos);
+        long n = 0;
+        for (int i = 0; i <= last; i++)
+            n += counts.get(i);
+        return n;
+    }
+}
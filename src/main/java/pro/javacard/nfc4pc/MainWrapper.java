@@ -7,18 +7,23 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 // Static entrypoint and CLI handling
 public class MainWrapper extends CLIOptions {
     static final URI reportURL = URI.create("https://javacard.pro/nfc4pc/stats");
-    static AtomicLong tapCounter = new AtomicLong(0); // Atomic so we can have daemon threads reading it for statistics
-    static AtomicLong urlCounter = new AtomicLong(0); // Atomic so we can have daemon threads reading it for statistics
-    static AtomicLong uidCounter = new AtomicLong(0); // Atomic so we can have daemon threads reading it for statistics
-    static AtomicLong metaCounter = new AtomicLong(0); // Atomic so we can have daemon threads reading it for statistics
-    static AtomicLong webhookCounter = new AtomicLong(0); // Atomic so we can have daemon threads reading it for statistics
+    // Adders, as reader threads count concurrently and daemon threads read them for statistics
+    static final LongAdder tapCounter = new LongAdder();
+    static final LongAdder urlCounter = new LongAdder();
+    static final LongAdder uidCounter = new LongAdder();
+    static final LongAdder metaCounter = new LongAdder();
+    static final LongAdder webhookCounter = new LongAdder();
+
+    private static volatile NFC4PC app;
+    private static volatile MetricsServer metrics;
 
     public static void main(String[] args) {
         // Prevent dock icon on macOS
@@ -28,6 +33,10 @@ public class MainWrapper extends CLIOptions {
         // Trap ctrl-c and similar signals
         Thread shutdownThread = new Thread(() -> {
             System.err.println("Ctrl-C, quitting nfc4pc");
+            if (metrics != null)
+                metrics.close();
+            if (app != null)
+                app.close();
             sendStatistics();
         });
 
@@ -62,8 +71,23 @@ public class MainWrapper extends CLIOptions {
                 System.exit(2);
             }
         } else {
-            NFC4PC app = new NFC4PC(opts, shutdownThread);
-            NFCReader reader = new NFCReader(app);
+            try {
+                app = new NFC4PC(opts, shutdownThread);
+            } catch (IllegalArgumentException e) {
+                fail("Invalid configuration: " + e.getMessage());
+            }
+            NFCReader reader = new NFCReader(app, opts.has(OPT_EVENTS)).suppress(Duration.ofMillis(opts.valueOf(OPT_SUPPRESS)), TapDedup.DEFAULT_SIZE);
+            if (opts.has(OPT_TAG_CACHE))
+                reader.cached(opts.valueOf(OPT_TAG_CACHE));
+            if (opts.has(OPT_METRICS)) {
+                if (!app.daemon)
+                    fail("Metrics are only served with --continue, --headless or --desktop");
+                try {
+                    metrics = new MetricsServer(MetricsServer.address(opts.valueOf(OPT_METRICS)), app, reader);
+                } catch (IOException | IllegalArgumentException e) {
+                    fail("Could not serve metrics: " + e.getMessage());
+                }
+            }
             Runtime.getRuntime().addShutdownHook(shutdownThread);
 
             if (opts.has(OPT_DESKTOP)) {
@@ -115,18 +139,13 @@ public class MainWrapper extends CLIOptions {
         for (String s : Arrays.asList("os.name", "os.version", "os.arch", "java.version", "java.vendor")) {
             p.put(s, System.getProperty(s, "unknown"));
         }
-        p.put("tap", String.valueOf(tapCounter.get()));
-        p.put("url", String.valueOf(urlCounter.get()));
-        p.put("uid", String.valueOf(uidCounter.get()));
-        p.put("meta", String.valueOf(metaCounter.get()));
-        p.put("webhook", String.valueOf(webhookCounter.get()));
+        p.put("tap", String.valueOf(tapCounter.sumThenReset()));
+        p.put("url", String.valueOf(urlCounter.sumThenReset()));
+        p.put("uid", String.valueOf(uidCounter.sumThenReset()));
+        p.put("meta", String.valueOf(metaCounter.sumThenReset()));
+        p.put("webhook", String.valueOf(webhookCounter.sumThenReset()));
 
         WebHooks.fireAndForget(reportURL, p);
-        tapCounter.set(0);
-        urlCounter.set(0);
-        uidCounter.set(0);
-        metaCounter.set(0);
-        webhookCounter.set(0);
     }
 
     static void fail(String message) {
@@ -0,0 +1,247 @@
+package pro.javacard.nfc4pc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Serves counters, queue depths and latency histograms at /metrics in the Prometheus text format.
+// Values are read as they are at the time of the scrape, nothing is reset.
+public class MetricsServer implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(MetricsServer.class);
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // Histogram buckets, in seconds
+    static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final NFC4PC app;
+    private final NFCReader reader;
+    private final HttpServer server;
+
+    public MetricsServer(InetSocketAddress address, NFC4PC app, NFCReader reader) throws IOException {
+        this.app = app;
+        this.reader = reader;
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Metrics");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        log.info("Serving metrics at http://{}:{}/metrics", address.getHostString(), server.getAddress().getPort());
+    }
+
+    // "port" or "host:port", local only unless a host is given
+    static InetSocketAddress address(String s) {
+        int colon = s.lastIndexOf(':');
+        String host = colon < 0 ? "127.0.0.1" : s.substring(0, colon);
+        try {
+            return new InetSocketAddress(host, Integer.parseInt(s.substring(colon + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid metrics address: " + s);
+        }
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        type(sb, "nfc4pc_taps_total", "counter", "Taps by reader and action taken");
+        for (Map.Entry<String, LongAdder[]> e : app.metrics.readers.entrySet())
+            for (TapMetrics.Action a : TapMetrics.ACTIONS)
+                sample(sb, "nfc4pc_taps_total", e.getValue()[a.ordinal()].sum(), "reader", e.getKey(), "action", a.label);
+
+        type(sb, "nfc4pc_errors_total", "counter", "Errors by kind");
+        for (Map.Entry<String, LongAdder> e : app.metrics.errors.entrySet())
+            sample(sb, "nfc4pc_errors_total", e.getValue().sum(), "kind", e.getKey());
+
+        TapDedup dedup = reader.dedup();
+        if (dedup != null) {
+            type(sb, "nfc4pc_suppressed_total", "counter", "Repeated taps suppressed");
+            sample(sb, "nfc4pc_suppressed_total", dedup.suppressed.sum());
+        }
+
+        TapCache cache = reader.cache();
+        if (cache != null) {
+            type(sb, "nfc4pc_tag_cache_total", "counter", "Lookups and evictions of the tag cache");
+            sample(sb, "nfc4pc_tag_cache_total", cache.hits.sum(), "result", "hit");
+            sample(sb, "nfc4pc_tag_cache_total", cache.misses.sum(), "result", "miss");
+            sample(sb, "nfc4pc_tag_cache_total", cache.evictions.sum(), "result", "eviction");
+        }
+
+        ProbePlanner planner = reader.planner();
+        type(sb, "nfc4pc_probe_plans_total", "counter", "Order of NDEF probes picked from the ATR");
+        for (ProbePlanner.Plan p : ProbePlanner.PLANS)
+            sample(sb, "nfc4pc_probe_plans_total", planner.plans[p.ordinal()].sum(), "plan", p.label);
+        type(sb, "nfc4pc_probe_skipped_total", "counter", "NDEF probes not sent compared to the default order, each at least one APDU");
+        sample(sb, "nfc4pc_probe_skipped_total", planner.skipped.sum());
+        type(sb, "nfc4pc_probe_mispredicted_total", "counter", "Taps that needed more probes than the default order");
+        sample(sb, "nfc4pc_probe_mispredicted_total", planner.mispredicted.sum());
+
+        // Samples of a metric go together
+        type(sb, "nfc4pc_detection_seconds", "summary", "Time from card detection to start of reading");
+        for (NFCReader.ReaderWorker w : reader.workers.values()) {
+            sample(sb, "nfc4pc_detection_seconds_sum", seconds(w.detectionNanos), "reader", w.name);
+            sample(sb, "nfc4pc_detection_seconds_count", w.detections, "reader", w.name);
+        }
+        type(sb, "nfc4pc_detection_max_seconds", "gauge", "Longest time from card detection to start of reading");
+        for (NFCReader.ReaderWorker w : reader.workers.values())
+            sample(sb, "nfc4pc_detection_max_seconds", seconds(w.maxDetectionNanos), "reader", w.name);
+        type(sb, "nfc4pc_stage_seconds", "histogram", "Time spent in each stage of a tap");
+        for (NFCReader.ReaderWorker w : reader.workers.values())
+            for (TapTimings.Stage s : TapTimings.STAGES)
+                histogram(sb, "nfc4pc_stage_seconds", w.latency(s), "reader", w.name, "stage", s.label);
+
+        type(sb, "nfc4pc_sink_queue_depth", "gauge", "Taps waiting for an output");
+        for (TapPipeline.Sink s : app.sinks.sinks)
+            if (s.executor != null)
+                sample(sb, "nfc4pc_sink_queue_depth", s.executor.getQueue().size(), "sink", s.name);
+        type(sb, "nfc4pc_sink_total", "counter", "Taps handed to outputs by outcome");
+        for (TapPipeline.Sink s : app.sinks.sinks) {
+            sample(sb, "nfc4pc_sink_total", s.processed.sum(), "sink", s.name, "outcome", "processed");
+            sample(sb, "nfc4pc_sink_total", s.failed.sum(), "sink", s.name, "outcome", "failed");
+            sample(sb, "nfc4pc_sink_total", s.timedOut.sum(), "sink", s.name, "outcome", "timed_out");
+            sample(sb, "nfc4pc_sink_total", s.dropped.sum(), "sink", s.name, "outcome", "dropped");
+        }
+        type(sb, "nfc4pc_sink_seconds", "histogram", "Time an output spends on a tap");
+        for (TapPipeline.Sink s : app.sinks.sinks)
+            histogram(sb, "nfc4pc_sink_seconds", s.latency, "sink", s.name);
+
+        // Webhook URL-s can carry credentials, so targets go by index and host
+        type(sb, "nfc4pc_webhook_queue_depth", "gauge", "Taps waiting for webhook delivery");
+        for (int i = 0; i < app.webhooks.size(); i++)
+            sample(sb, "nfc4pc_webhook_queue_depth", app.webhooks.get(i).depth(), target(app.webhooks, i));
+        type(sb, "nfc4pc_webhook_spool_size", "gauge", "Webhooks waiting in the spool");
+        for (int i = 0; i < app.webhooks.size(); i++)
+            sample(sb, "nfc4pc_webhook_spool_size", app.webhooks.get(i).spoolSize(), target(app.webhooks, i));
+        type(sb, "nfc4pc_webhook_total", "counter", "Webhooks by outcome");
+        for (int i = 0; i < app.webhooks.size(); i++) {
+            WebHookQueue q = app.webhooks.get(i);
+            sample(sb, "nfc4pc_webhook_total", q.delivered.sum(), outcome(app.webhooks, i, "delivered"));
+            sample(sb, "nfc4pc_webhook_total", q.failed.sum(), outcome(app.webhooks, i, "failed"));
+            sample(sb, "nfc4pc_webhook_total", q.retried.sum(), outcome(app.webhooks, i, "retried"));
+            sample(sb, "nfc4pc_webhook_total", q.dropped.sum(), outcome(app.webhooks, i, "dropped"));
+            sample(sb, "nfc4pc_webhook_total", q.spilled.sum(), outcome(app.webhooks, i, "spilled"));
+            sample(sb, "nfc4pc_webhook_total", q.spooled.sum(), outcome(app.webhooks, i, "spooled"));
+            sample(sb, "nfc4pc_webhook_total", q.resent.sum(), outcome(app.webhooks, i, "resent"));
+            sample(sb, "nfc4pc_webhook_total", q.spoolDropped(), outcome(app.webhooks, i, "spool_dropped"));
+        }
+        type(sb, "nfc4pc_webhook_breaker_total", "counter", "Circuit breaker transitions into each state");
+        for (int i = 0; i < app.webhooks.size(); i++) {
+            WebHookQueue q = app.webhooks.get(i);
+            sample(sb, "nfc4pc_webhook_breaker_total", q.breaker.opened.sum(), state(app.webhooks, i, "open"));
+            sample(sb, "nfc4pc_webhook_breaker_total", q.breaker.halfOpened.sum(), state(app.webhooks, i, "half_open"));
+            sample(sb, "nfc4pc_webhook_breaker_total", q.breaker.closed.sum(), state(app.webhooks, i, "closed"));
+        }
+        type(sb, "nfc4pc_webhook_seconds", "histogram", "Time from queueing to delivery of a webhook");
+        for (int i = 0; i < app.webhooks.size(); i++)
+            histogram(sb, "nfc4pc_webhook_seconds", app.webhooks.get(i).latency, target(app.webhooks, i));
+        return sb.toString();
+    }
+
+    static String[] target(List<WebHookQueue> webhooks, int i) {
+        return new String[]{"target", String.valueOf(i), "host", WebHooks.host(webhooks.get(i).url())};
+    }
+
+    static String[] outcome(List<WebHookQueue> webhooks, int i, String outcome) {
+        return new String[]{"target", String.valueOf(i), "host", WebHooks.host(webhooks.get(i).url()), "outcome", outcome};
+    }
+
+    static String[] state(List<WebHookQueue> webhooks, int i, String state) {
+        return new String[]{"target", String.valueOf(i), "host", WebHooks.host(webhooks.get(i).url()), "state", state};
+    }
+
+    static void type(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // Labels as name and value pairs
+    static void sample(StringBuilder sb, String name, double value, String... labels) {
+        sb.append(name);
+        if (labels.length > 0) {
+            sb.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(labels[i]).append("=\"");
+                escape(sb, labels[i + 1]);
+                sb.append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            sb.append((long) value);
+        else
+            sb.append(value);
+        sb.append('\n');
+    }
+
+    static void histogram(StringBuilder sb, String name, LatencyHistogram h, String... labels) {
+        String[] le = Arrays.copyOf(labels, labels.length + 2);
+        le[labels.length] = "le";
+        long below = 0;
+        for (double bucket : BUCKETS) {
+            le[labels.length + 1] = String.valueOf(bucket);
+            below = h.countBelow((long) (bucket * 1e9));
+            sample(sb, name + "_bucket", below, le);
+        }
+        // Recorded while scraping, keep it cumulative
+        long count = Math.max(below, h.count());
+        le[labels.length + 1] = "+Inf";
+        sample(sb, name + "_bucket", count, le);
+        sample(sb, name + "_sum", seconds(h.sum()), labels);
+        sample(sb, name + "_count", count, labels);
+    }
+
+    static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '"' -> sb.append("\\\"");
+                case '\n' -> sb.append("\\n");
+                default -> sb.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -5,11 +5,12 @@ import apdu4j.pcsc.SCard;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class NDEF {
     static final Logger log = LoggerFactory.getLogger(NDEF.class);
@@ -17,92 +18,220 @@ public class NDEF {
     static final byte[] NDEF_AID = new byte[]{(byte) 0xD2, (byte) 0x76, (byte) 0x00, (byte) 0x00, (byte) 0x85, (byte) 0x01, (byte) 0x01};
 
     // Reads the UID, if available (might not be supported by reader or might be unsupported chip/technology)
-    static Optional<byte[]> getUID(APDUBIBO b) throws BIBOException {
-        var uid = b.transmit(new CommandAPDU(0xFF, 0xCA, 0x00, 0x00, 256));
+    static Optional<UID> getUID(APDUBIBO b) throws BIBOException {
+        var response = b.transmit(new CommandAPDU(0xFF, 0xCA, 0x00, 0x00, 256));
+        var data = response.getData();
 
-        if (uid.getSW() == 0x9000 && Arrays.asList(4, 7, 10).contains(uid.getData().length)) {
-            var uid_bytes = uid.getData();
-            log.info("UID: {}", HexUtils.bin2hex(uid_bytes));
-            return Optional.of(uid_bytes);
+        if (response.getSW() == 0x9000 && (data.length == 4 || data.length == 7 || data.length == 10)) {
+            var uid = UID.of(data);
+            log.info("UID: {}", uid);
+            return Optional.of(uid);
         }
         return Optional.empty();
     }
 
-    static boolean isNull(byte[] b) {
-        for (Byte v : b)
-            if (v != 0)
+    static boolean isNull(byte[] b, int offset, int length) {
+        for (int i = offset; i < offset + length; i++)
+            if (b[i] != 0)
                 return false;
         return true;
     }
 
+    // Type 2 TLV tags
+    static final byte TLV_NULL = 0x00;
+    static final byte TLV_NDEF = 0x03;
+    static final byte TLV_TERMINATOR = (byte) 0xFE;
+
+    // Offset of the value of the TLV at pos, or -1 if the length is not within the first len bytes
+    static int type2_value(byte[] area, int pos, int len) {
+        if (pos + 1 >= len)
+            return -1;
+        if ((area[pos + 1] & 0xFF) == 0xFF)
+            return pos + 3 < len ? pos + 4 : -1;
+        return pos + 2;
+    }
+
+    // Length of the TLV value at pos, with value offset from type2_value
+    static int type2_length(byte[] area, int pos) {
+        if ((area[pos + 1] & 0xFF) == 0xFF)
+            return ((area[pos + 2] & 0xFF) << 8) | (area[pos + 3] & 0xFF);
+        return area[pos + 1] & 0xFF;
+    }
+
+    // Walks the TLV-s of a Type 2 data area from pos, within the first len bytes.
+    // Returns the offset of the NDEF or terminator TLV, once it is complete, or the offset
+    // of the first TLV that is not complete yet, negated and minus one, so that reading can continue.
+    static int type2_scan(byte[] area, int pos, int len) {
+        while (pos < len) {
+            if (area[pos] == TLV_TERMINATOR)
+                return pos;
+            if (area[pos] == TLV_NULL) {
+                pos++;
+                continue;
+            }
+            int value = type2_value(area, pos, len);
+            if (value < 0 || value + type2_length(area, pos) > len)
+                break;
+            if (area[pos] == TLV_NDEF)
+                return pos;
+            pos = value + type2_length(area, pos);
+        }
+        return -pos - 1;
+    }
+
+    // Bytes per Type 2 READ BINARY known to work with a reader, learned on first read
+    static final ConcurrentHashMap<String, Integer> type2ReadSizes = new ConcurrentHashMap<>();
+    // First attempt: 60 pages, which readers map to READ or FAST_READ as they see fit
+    static final int TYPE2_PROBE_SIZE = 0xF0;
+
+    // READ BINARY addresses blocks with P2, so only blocks up to 0xFF can be read without sector select
+    static final int TYPE2_LAST_BLOCK = 0xFF;
+    static final int TYPE2_MAX_AREA = (TYPE2_LAST_BLOCK + 1 - 4) * 4;
+
+    // Next read size to try after a reader refused a read of given size
+    static int type2Fallback(int size) {
+        return size > 16 ? 16 : 4;
+    }
+
     // Returns the NDEF message, if any
-    static Optional<byte[]> getType2(APDUBIBO b) throws BIBOException {
-        try {
-            // Read capability container (4th block)
-            ResponseAPDU initial = b.transmit(new CommandAPDU(0xFF, 0xB0, 0x00, 3, 0x04));
-            // Cloud 3700F: returns 4 bytes even if asked for 16. OK 5022 returns 16 bytes even if asked for 4.
-            if (initial.getSW() == 0x9000 && initial.getData().length >= 4) {
-                var init = initial.getData();
-                log.debug("Capability container: {}", HexUtils.bin2hex(init));
-                if (init[0] == (byte) 0xE1 && init[1] == 0x10) {
-                    int total = (init[2] & 0xFF) * 8;
-                    log.info("NDEF payload of {} bytes", total);
-                    ByteArrayOutputStream payload = new ByteArrayOutputStream();
-
-                    for (int blocknum = 4; payload.toByteArray().length < total; ) {
-                        log.debug("Reading block {}", blocknum);
-                        log.debug("Current payload: ({} bytes) {}", payload.toByteArray().length, HexUtils.bin2hex(payload.toByteArray()));
-
-                        var block = b.transmit(new CommandAPDU(0xFF, 0xB0, 0x00, blocknum, 4));
-                        var bytes = block.getData();
-                        if (block.getSW() == 0x9000) {
-                            log.debug("Block: {}", HexUtils.bin2hex(bytes));
-                            if (isNull(bytes)) {
-                                log.debug("Empty block, not reading more");
-                                break;
-                            }
-                            payload.write(bytes);
-                            blocknum += bytes.length / 4;
-                        } else {
-                            log.warn("Read returned {}", HexUtils.bin2hex(block.getBytes()));
-                            return Optional.empty();
-                        }
+    static Optional<byte[]> getType2(APDUBIBO b, String reader) throws BIBOException {
+        Optional<byte[]> cc = getType2CC(b);
+        return cc.isPresent() ? getType2(b, reader, cc.get()) : Optional.empty();
+    }
+
+    // Reads the capability container (4th block)
+    static Optional<byte[]> getType2CC(APDUBIBO b) throws BIBOException {
+        ResponseAPDU initial = b.transmit(new CommandAPDU(0xFF, 0xB0, 0x00, 3, 0x04));
+        // Cloud 3700F: returns 4 bytes even if asked for 16. OK 5022 returns 16 bytes even if asked for 4.
+        if (initial.getSW() == 0x9000 && initial.getData().length >= 4)
+            return Optional.of(Arrays.copyOf(initial.getData(), 4));
+        log.info("Failed to read initial block: {}", HexUtils.bin2hex(initial.getBytes()));
+        return Optional.empty();
+    }
+
+    // Write access nibble of the capability container: 0x0 granted, 0xF none
+    static boolean type2ReadOnly(byte[] cc) {
+        return cc[0] == (byte) 0xE1 && (cc[3] & 0x0F) == 0x0F;
+    }
+
+    // Reads the NDEF message, after the capability container
+    static Optional<byte[]> getType2(APDUBIBO b, String reader, byte[] init) throws BIBOException {
+        log.debug("Capability container: {}", HexUtils.bin2hex(init));
+        if (init[0] == (byte) 0xE1 && init[1] == 0x10) {
+            int total = (init[2] & 0xFF) * 8;
+            log.info("NDEF payload of {} bytes", total);
+            boolean capped = total > TYPE2_MAX_AREA;
+            if (capped) {
+                log.debug("Data area of {} bytes, reading only the first {} without sector select", total, TYPE2_MAX_AREA);
+                total = TYPE2_MAX_AREA;
+            }
+            // Read into a buffer of the declared size, until NDEF TLV or terminator is seen
+            byte[] area = new byte[total];
+            int filled = 0;
+            int scan = -1;
+
+            Integer known = type2ReadSizes.get(reader);
+            int readSize = known == null ? TYPE2_PROBE_SIZE : known;
+            boolean probing = known == null;
+
+            for (int blocknum = 4; filled < total; ) {
+                log.debug("Reading block {}, have {} bytes", blocknum, filled);
+
+                int len = Math.min(readSize, (total - filled + 3) & ~3);
+                var block = b.transmit(new CommandAPDU(0xFF, 0xB0, 0x00, blocknum, len));
+                var bytes = block.getData();
+                if (block.getSW() == 0x9000 && bytes.length >= 4) {
+                    log.debug("Block: {}", HexUtils.bin2hex(bytes));
+                    // Short response means the reader has a smaller limit. Full response counts only if the full size was asked
+                    if (probing && (bytes.length < len || len == readSize)) {
+                        readSize = Math.min(readSize, bytes.length & ~3);
+                        log.debug("Reader \"{}\" reads {} bytes at a time", reader, readSize);
+                        type2ReadSizes.put(reader, readSize);
+                        probing = false;
                     }
-                    return Optional.of(type2_to_message(payload.toByteArray()));
+                    // Whole pages only, so that the buffer and the block number stay in step
+                    int pages = bytes.length / 4;
+                    int chunk = Math.min(pages * 4, total - filled);
+                    System.arraycopy(bytes, 0, area, filled, chunk);
+                    filled += chunk;
+                    blocknum += pages;
+
+                    scan = type2_scan(area, -scan - 1, filled);
+                    if (scan >= 0) {
+                        log.debug("TLV-s complete after {} bytes", filled);
+                        break;
+                    }
+                    // Nothing but padding in this block
+                    if (-scan - 1 >= filled - chunk && isNull(area, filled - chunk, chunk)) {
+                        log.debug("Empty block, not reading more");
+                        break;
+                    }
+                } else if (readSize > 4) {
+                    // Reader did not like the length, retry the same block with a smaller read
+                    int hint = block.getSW1() == 0x6C ? block.getSW2() & ~3 : 0;
+                    readSize = hint >= 4 && hint < readSize ? hint : type2Fallback(readSize);
+                    log.debug("Read of {} bytes returned {}, trying {}", len, HexUtils.bin2hex(block.getBytes()), readSize);
+                    type2ReadSizes.put(reader, readSize);
                 } else {
-                    log.warn("Invalid capability block: {}", HexUtils.bin2hex(init));
+                    log.warn("Read returned {}", HexUtils.bin2hex(block.getBytes()));
+                    return Optional.empty();
                 }
-            } else {
-                log.info("Failed to read initial block: {}", HexUtils.bin2hex(initial.getBytes()));
             }
-        } catch (IOException e) {
-            log.error("Could not read: " + e.getMessage(), e);
+            if (capped && scan < 0 && filled == total)
+                throw new IllegalArgumentException("NDEF message does not fit in the first " + TYPE2_MAX_AREA + " bytes, sector select is not supported");
+            if (scan < 0 || area[scan] != TLV_NDEF || type2_length(area, scan) == 0) {
+                log.info("No NDEF message on tag");
+                return Optional.empty();
+            }
+            return Optional.of(type2_to_message(area));
+        } else {
+            log.warn("Invalid capability block: {}", HexUtils.bin2hex(init));
         }
         return Optional.empty();
     }
 
+    // URI identifier codes of the URI record type, 0x00 to 0x23
+    static final String[] URI_PREFIXES = {
+            "", "http://www.", "https://www.", "http://", "https://", "tel:", "mailto:", "ftp://anonymous:anonymous@",
+            "ftp://ftp.", "ftps://", "sftp://", "smb://", "nfs://", "ftp://", "dav://", "news:",
+            "telnet://", "imap:", "rtsp://", "urn:", "pop:", "sip:", "sips:", "tftp:",
+            "btspp://", "btl2cap://", "btgoep://", "tcpobex://", "irdaobex://", "file://", "urn:epc:id:", "urn:epc:tag:",
+            "urn:epc:pat:", "urn:epc:raw:", "urn:epc:", "urn:nfc:"
+    };
+
+    static final byte[] TYPE_URI = {'U'};
+    static final byte[] TYPE_SMART_POSTER = {'S', 'p'};
+
     // Turn the NDEF well-known URL record into URL string
     static String record2url(byte[] record) {
-        String rest = new String(Arrays.copyOfRange(record, 1, record.length));
-        return switch (record[0]) {
-            case 0x00 -> rest;
-            case 0x01 -> "http://www." + rest;
-            case 0x02 -> "https://www." + rest;
-            case 0x03 -> "http://" + rest;
-            case 0x04 -> "https://" + rest;
-            default -> throw new IllegalArgumentException("Unsupported URL record type: " + HexUtils.bin2hex(record));
-        };
+        return record2url(ByteBuffer.wrap(record));
+    }
+
+    static String record2url(ByteBuffer record) {
+        if (!record.hasRemaining())
+            throw new IllegalArgumentException("Empty URL record");
+        int code = record.get(record.position()) & 0xFF;
+        if (code >= URI_PREFIXES.length)
+            throw new IllegalArgumentException("Unsupported URL record type: " + String.format("%02X", code));
+        return URI_PREFIXES[code] + utf8(record, record.position() + 1, record.remaining() - 1);
+    }
+
+    static String utf8(ByteBuffer b, int offset, int length) {
+        if (b.hasArray())
+            return new String(b.array(), b.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        return StandardCharsets.UTF_8.decode(b.slice(offset, length)).toString();
     }
 
     static byte[] type2_to_message(byte[] payload) {
-        log.debug("Parsing {}", HexUtils.bin2hex(payload));
-        int pos = 0;
-        if (payload[pos] == 0x01)
-            pos += payload[pos + 1] + 1;
-        if (payload[pos] == 0x02)
-            pos += payload[pos + 1] + 1;
-        byte[] msg = Arrays.copyOfRange(payload, pos + 2, pos + 2 + payload[pos + 1]);
-        log.debug("Message: {}", HexUtils.bin2hex(msg));
+        if (log.isDebugEnabled())
+            log.debug("Parsing {}", HexUtils.bin2hex(payload));
+        int pos = type2_scan(payload, 0, payload.length);
+        if (pos < 0 || payload[pos] != TLV_NDEF)
+            throw new IllegalArgumentException("No NDEF message TLV");
+        int value = type2_value(payload, pos, payload.length);
+        byte[] msg = Arrays.copyOfRange(payload, value, value + type2_length(payload, pos));
+        if (log.isDebugEnabled())
+            log.debug("Message: {}", HexUtils.bin2hex(msg));
         return msg;
     }
 
@@ -111,36 +240,48 @@ public class NDEF {
         return Arrays.copyOfRange(payload, 2, payload.length);
     }
 
-    // Extract single URL payload from message
+    // Extract URL from message: the first URI record, also from within a Smart Poster
     static String msg2url(byte[] payload) {
-        log.debug("Parsing {}", HexUtils.bin2hex(payload));
-
-        final byte[] record;
+        return msg2url(ByteBuffer.wrap(payload));
+    }
 
-        // Give a helpful message when using smart posters
-        if (payload[1] == 0x02 && payload[3] == 0x53 && payload[4] == 0x70)
-            throw new IllegalArgumentException("Smart Poster would not be supported by iPhone. Ignoring");
+    static String msg2url(ByteBuffer payload) {
+        if (log.isDebugEnabled()) {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            log.debug("Parsing {}", HexUtils.bin2hex(bytes));
+        }
 
-        if (payload[1] != 0x01) {
-            throw new IllegalArgumentException("Unsupported NDEF message: TNF length is not 1");
+        NDEFMessage msg = new NDEFMessage(payload);
+        while (msg.next()) {
+            if (msg.isType(NDEFMessage.TNF_WELL_KNOWN, TYPE_URI)) {
+                return record2url(msg.reassemble());
+            } else if (msg.isType(NDEFMessage.TNF_WELL_KNOWN, TYPE_SMART_POSTER)) {
+                log.debug("Using URL from Smart Poster");
+                return msg2url(msg.reassemble());
+            } else if (msg.tnf() == NDEFMessage.TNF_ABSOLUTE_URI) {
+                ByteBuffer type = msg.type();
+                return utf8(type, 0, type.remaining());
+            } else if (msg.isChunked()) {
+                // Skip over the chunks of a record we don't care about
+                msg.reassemble();
+            }
         }
-        // Short record
-        if ((payload[0] & 0x10) == 0x10) {
-            if (payload[3] != 0x55)
-                throw new IllegalArgumentException("Unsupported TNF");
-            int len = payload[2] & 0xFF;
-            record = Arrays.copyOfRange(payload, 4, 4 + len);
-        } else if ((payload[0] & 0x10) == 0x00) {
-            if (payload[6] != 0x55)
-                throw new IllegalArgumentException("Unsupported TNF");
-            ByteBuffer buffer = ByteBuffer.wrap(payload);
-            int len = buffer.getInt(2);
-            record = Arrays.copyOfRange(payload, 7, 7 + len);
-        } else throw new IllegalArgumentException("Invalid SR bit");
-        return record2url(record);
-    }
-
-    static Optional<byte[]> getType4(APDUBIBO bibo) {
+        throw new IllegalArgumentException("No URL record in NDEF message");
+    }
+
+    // Readers that refused an extended length READ BINARY
+    static final Set<String> type4ShortOnly = ConcurrentHashMap.newKeySet();
+    // First READ BINARY of the NDEF file, for the length and the beginning of a short message
+    static final int TYPE4_FIRST_READ = 0xFF;
+
+    static Optional<byte[]> getType4(APDUBIBO bibo, String reader) {
+        Optional<byte[]> cc = getType4CC(bibo);
+        return cc.isPresent() ? getType4(bibo, reader, cc.get()) : Optional.empty();
+    }
+
+    // Selects the application and reads the capability container
+    static Optional<byte[]> getType4CC(APDUBIBO bibo) {
         log.debug("Trying to read Type 4 NDEF tag");
         try {
             ResponseAPDU select = bibo.transceive(new CommandAPDU(0x00, 0xA4, 0x04, 0x00, NDEF_AID, 256));
@@ -149,52 +290,93 @@ public class NDEF {
                 if (cap.getSW() == 0x9000) {
                     // Capabilities
                     ResponseAPDU read = bibo.transceive(new CommandAPDU(0x00, 0xb0, 0x00, 0x00, 0x0F));
+                    byte[] cc = read.getData();
+                    if (read.getSW() != 0x9000 || cc.length < 15) {
+                        log.warn("Invalid capability container: {}", HexUtils.bin2hex(read.getBytes()));
+                        return Optional.empty();
+                    }
+                    return Optional.of(Arrays.copyOf(cc, 15));
+                }
+            } else {
+                log.debug("SELECT NDEF was not 0x9000");
+            }
+        } catch (BIBOException e) {
+            Optional<String> err = SCard.getPCSCError(e);
+            err.ifPresent(s -> log.error("Failed to read type 4: {}", s));
+        }
+        return Optional.empty();
+    }
+
+    // Write access byte of the NDEF file control TLV: 0x00 granted, anything else is not
+    static boolean type4ReadOnly(byte[] cc) {
+        return cc[7] == 0x04 && cc[14] != 0x00;
+    }
 
-                    // We always use short APDU-s
-                    int maxReadSize = getShort(read.getData(), (short) 3);
-                    if (maxReadSize > 0x100) {
-                        log.warn("Max read size is {}, limiting to 256", maxReadSize);
+    // Reads the NDEF file, after the capability container
+    static Optional<byte[]> getType4(APDUBIBO bibo, String reader, byte[] cc) {
+        try {
+            // Extended length if the tag can and the reader has not refused it before
+            int mle = getShort(cc, (short) 3) & 0xFFFF;
+            int maxReadSize = Math.min(mle, type4ShortOnly.contains(reader) ? 0x100 : 0x10000);
+            log.debug("Max read size: {} (MLe {})", maxReadSize, mle);
+
+            // This DOES include the 2 byte header
+            int fileSize = getShort(cc, (short) 11) & 0xFFFF;
+
+            ResponseAPDU selectDATA = bibo.transceive(new CommandAPDU(0x00, 0xA4, 0x00, 0x0C, Arrays.copyOfRange(cc, 9, 11)));
+            if (selectDATA.getSW() == 0x9000) {
+                // First read brings the 2 byte length header together with the beginning of the message,
+                // the rest is read up to the length. File size is only the room there is for a message.
+                byte[] payload = null;
+                int offset = 0;
+                int end = Math.min(fileSize, Math.min(mle, TYPE4_FIRST_READ));
+                while (offset < end) {
+                    int len = Math.min(end - offset, maxReadSize);
+                    ResponseAPDU readResponse;
+                    try {
+                        readResponse = bibo.transceive(new CommandAPDU(0x00, 0xb0, offset >> 8, offset & 0xFF, len));
+                    } catch (BIBOException e) {
+                        // Readers without extended length often fail the transmit instead of returning a status
+                        if (len <= 0x100)
+                            throw e;
+                        readResponse = null;
+                    }
+                    if (len > 0x100 && (readResponse == null || readResponse.getSW() != 0x9000)) {
+                        log.info("Extended read {}, using short reads with \"{}\"", readResponse == null ? "failed" : "returned " + Integer.toHexString(readResponse.getSW()), reader);
+                        type4ShortOnly.add(reader);
                         maxReadSize = 0x100;
+                        continue;
+                    }
+                    byte[] chunk = readResponse.getData();
+                    if (readResponse.getSW() != 0x9000 || chunk.length == 0) {
+                        log.error("Read returned: {}", Integer.toHexString(readResponse.getSW()));
+                        return Optional.empty();
                     }
-                    log.debug("Max read size: {}", maxReadSize);
-
-                    // This DOES include the 2 byte header
-                    int payloadSize = getShort(read.getData(), (short) 11);
-
-                    ResponseAPDU selectDATA = bibo.transceive(new CommandAPDU(0x00, 0xA4, 0x00, 0x0C, HexUtils.hex2bin("e104")));
-                    if (selectDATA.getSW() == 0x9000) {
-                        ResponseAPDU len = bibo.transceive(new CommandAPDU(0x00, 0xb0, 0x00, 0x00, 0x02));
-                        if (len.getSW() == 0x9000) {
-                            // 2 byte header contains the payload length AFTER the header
-                            int reportedLen = getShort(len.getData(), (short) 0);
-                            if ((reportedLen + 2) != payloadSize) {
-                                log.warn("Warning: payload length mismatch: {} in capability, {} in data", payloadSize, reportedLen + 2);
-                            }
-
-                            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                            int offset;
-                            int i;
-                            // Limit up to 10 reads
-                            for (offset = 2, i = 0; offset < payloadSize && i < 10; i++) {
-                                int left = payloadSize - offset;
-
-                                ResponseAPDU readResponse = bibo.transceive(new CommandAPDU(0x00, 0xb0, offset >> 8, offset, Math.min(left, maxReadSize)));
-                                if (readResponse.getSW() != 0x9000) {
-                                    log.error("Read returned: {}", Integer.toHexString(readResponse.getSW()));
-                                    return Optional.empty();
-                                }
-                                byte[] chunk = readResponse.getData();
-                                offset += chunk.length;
-                                bos.writeBytes(chunk);
-                            }
-                            byte[] payload = bos.toByteArray();
-                            log.info("Payload: " + HexUtils.bin2hex(payload));
-                            return Optional.of(payload);
+                    if (payload == null) {
+                        if (chunk.length < 2) {
+                            log.error("Short read of NDEF length: {}", HexUtils.bin2hex(chunk));
+                            return Optional.empty();
+                        }
+                        // 2 byte header contains the payload length AFTER the header
+                        int reportedLen = getShort(chunk, (short) 0) & 0xFFFF;
+                        if ((reportedLen + 2) > fileSize) {
+                            log.warn("Warning: payload length mismatch: {} in capability, {} in data", fileSize, reportedLen + 2);
+                            reportedLen = fileSize - 2;
                         }
+                        payload = new byte[reportedLen];
+                        end = reportedLen + 2;
                     }
+                    // Skip the header in the first chunk
+                    int skip = offset < 2 ? 2 - offset : 0;
+                    int copy = Math.min(chunk.length - skip, end - offset - skip);
+                    if (copy > 0)
+                        System.arraycopy(chunk, skip, payload, offset + skip - 2, copy);
+                    offset += chunk.length;
                 }
-            } else {
-                log.debug("SELECT NDEF was not 0x9000");
+                if (payload == null)
+                    return Optional.empty();
+                log.info("Payload: " + HexUtils.bin2hex(payload));
+                return Optional.of(payload);
             }
         } catch (BIBOException e) {
             Optional<String> err = SCard.getPCSCError(e);
@@ -0,0 +1,152 @@
+package pro.javacard.nfc4pc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+// Cursor over the records of an NDEF message. Headers are parsed in place, type, ID and payload
+// are handed out as views of the underlying buffer only when asked for.
+public final class NDEFMessage {
+    static final int MB = 0x80;
+    static final int ME = 0x40;
+    static final int CF = 0x20;
+    static final int SR = 0x10;
+    static final int IL = 0x08;
+
+    public static final int TNF_EMPTY = 0x00;
+    public static final int TNF_WELL_KNOWN = 0x01;
+    public static final int TNF_MEDIA = 0x02;
+    public static final int TNF_ABSOLUTE_URI = 0x03;
+    public static final int TNF_EXTERNAL = 0x04;
+    public static final int TNF_UNKNOWN = 0x05;
+    public static final int TNF_UNCHANGED = 0x06;
+
+    private final ByteBuffer buffer;
+    private int next;
+
+    // Current record
+    private int header = -1;
+    private int typeOffset;
+    private int typeLength;
+    private int idOffset;
+    private int idLength;
+    private int payloadOffset;
+    private int payloadLength;
+
+    public NDEFMessage(ByteBuffer message) {
+        this.buffer = message;
+        this.next = message.position();
+    }
+
+    public static NDEFMessage wrap(byte[] message) {
+        return new NDEFMessage(ByteBuffer.wrap(message));
+    }
+
+    // Moves to the next record. Returns false after the record with ME flag or at the end of data
+    public boolean next() {
+        if (header >= 0 && (header & ME) == ME)
+            return false;
+        int pos = next;
+        if (pos >= buffer.limit()) {
+            if (header < 0)
+                throw new IllegalArgumentException("Empty NDEF message");
+            // Missing ME is tolerated
+            return false;
+        }
+        int h = buffer.get(pos) & 0xFF;
+        if (header < 0 && (h & MB) != MB)
+            throw new IllegalArgumentException("First record does not have MB flag");
+        if ((h & 0x07) == 0x07)
+            throw new IllegalArgumentException("Reserved TNF");
+        int headerLength = 2 + ((h & SR) == SR ? 1 : 4) + ((h & IL) == IL ? 1 : 0);
+        need(pos, headerLength);
+        int tl = buffer.get(pos + 1) & 0xFF;
+        long pl;
+        int p = pos + 2;
+        if ((h & SR) == SR) {
+            pl = buffer.get(p++) & 0xFF;
+        } else {
+            pl = buffer.getInt(p) & 0xFFFFFFFFL;
+            p += 4;
+        }
+        int il = (h & IL) == IL ? buffer.get(p++) & 0xFF : 0;
+        if (pl > buffer.limit())
+            throw new IllegalArgumentException("Record payload length out of bounds: " + pl);
+        need(p, tl + il + (int) pl);
+
+        header = h;
+        typeOffset = p;
+        typeLength = tl;
+        idOffset = p + tl;
+        idLength = il;
+        payloadOffset = idOffset + il;
+        payloadLength = (int) pl;
+        next = payloadOffset + payloadLength;
+        return true;
+    }
+
+    private void need(int pos, int len) {
+        if (pos + len > buffer.limit())
+            throw new IllegalArgumentException("Truncated NDEF record at offset " + pos);
+    }
+
+    public int tnf() {
+        return header & 0x07;
+    }
+
+    public boolean isFirst() {
+        return (header & MB) == MB;
+    }
+
+    public boolean isLast() {
+        return (header & ME) == ME;
+    }
+
+    public boolean isChunked() {
+        return (header & CF) == CF;
+    }
+
+    // Compares the record type without copying it out
+    public boolean isType(int tnf, byte... type) {
+        if (tnf() != tnf || typeLength != type.length)
+            return false;
+        for (int i = 0; i < type.length; i++)
+            if (buffer.get(typeOffset + i) != type[i])
+                return false;
+        return true;
+    }
+
+    public ByteBuffer type() {
+        return buffer.slice(typeOffset, typeLength);
+    }
+
+    public ByteBuffer id() {
+        return buffer.slice(idOffset, idLength);
+    }
+
+    public ByteBuffer payload() {
+        return buffer.slice(payloadOffset, payloadLength);
+    }
+
+    public int payloadLength() {
+        return payloadLength;
+    }
+
+    // Payload of a chunked record, gathered from the following chunks, which moves the cursor
+    // to the last chunk. Payload of an unchunked record is returned as a view.
+    public ByteBuffer reassemble() {
+        if (!isChunked())
+            return payload();
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        while (true) {
+            byte[] chunk = new byte[payloadLength];
+            buffer.get(payloadOffset, chunk);
+            chunks.writeBytes(chunk);
+            if (!isChunked())
+                return ByteBuffer.wrap(chunks.toByteArray());
+            if (!next())
+                throw new IllegalArgumentException("Unterminated chunked record");
+            if (tnf() != TNF_UNCHANGED)
+                throw new IllegalArgumentException("Chunk with TNF " + tnf());
+        }
+    }
+}
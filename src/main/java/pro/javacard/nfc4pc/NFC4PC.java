@@ -1,7 +1,7 @@
 package pro.javacard.nfc4pc;
 
-import apdu4j.core.HexUtils;
 import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,8 +9,16 @@ import java.awt.*;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -19,6 +27,8 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
     static final Logger log = LoggerFactory.getLogger(NFC4PC.class);
 
     final static int DEFAULT_TIMEOUT = 30;
+    final static Duration SPOOL_RETRY = Duration.ofSeconds(10);
+    final static int UID_TABLE_CHECK = 2; // seconds
 
     final static String ANSI_CLEAR_SCREEN = "\033[H\033[2J";
     boolean daemon;
@@ -26,7 +36,15 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
 
     final ScheduledFuture<?> idler;
 
-    URI webhook;
+    final List<URI> webhook;
+    final List<WebHookQueue> webhooks;
+    final UIDTable uids;
+    final TapMetrics metrics = new TapMetrics();
+    final TapStream stream;
+    final TapWriter json;
+    final List<TapProcessor> plugins = new ArrayList<>();
+    final TapPipeline sinks;
+    volatile int status;
     final OptionSet opts;
 
     final Thread shutdownHook;
@@ -38,9 +56,44 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
         // Desktop mode, continuous mode or headless daemon
         daemon = opts.has(OPT_DESKTOP) || opts.has(OPT_CONTINUE) || opts.has(OPT_HEADLESS);
         log.info("Daemon mode: {}", daemon);
-        webhook = opts.valueOf(OPT_WEBHOOK);
-        log.info("Webhook: {}", webhook);
-
+        webhook = opts.valuesOf(OPT_WEBHOOK);
+        log.info("Webhooks: {}", webhook.stream().map(WebHooks::host).toList());
+        webhooks = new ArrayList<>();
+        for (int i = 0; i < webhook.size(); i++)
+            webhooks.add(webhook(opts, i, webhook.size() > 1));
+        if (opts.has(OPT_UID_TABLE)) {
+            try {
+                uids = new UIDTable(opts.valueOf(OPT_UID_TABLE).toPath()).watch(UID_TABLE_CHECK);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can not load UID table: " + e.getMessage(), e);
+            }
+        } else
+            uids = null;
+        if (opts.has(OPT_STREAM)) {
+            if (!daemon)
+                throw new IllegalArgumentException("Tap stream needs --continue, --headless or --desktop");
+            try {
+                stream = new TapStream(MetricsServer.address(opts.valueOf(OPT_STREAM)), TapStream.BUFFER);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can not stream taps: " + e.getMessage(), e);
+            }
+        } else
+            stream = null;
+        if (opts.has(OPT_JSON)) {
+            try {
+                json = TapWriter.open(opts.valueOf(OPT_JSON));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can not open JSON output: " + e.getMessage(), e);
+            }
+        } else
+            json = null;
+        if (opts.has(OPT_PLUGINS)) {
+            for (TapProcessor plugin : ServiceLoader.load(TapProcessor.class))
+                plugins.add(plugin);
+            if (plugins.isEmpty())
+                throw new IllegalArgumentException("No tap plugins found");
+        }
+        sinks = sinks(opts);
 
         // Set idle quit for non-daemon mode
         if (!daemon) {
@@ -62,6 +115,39 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
             idler = null;
     }
 
+    // The i-th --webhook-inflight and --webhook-queue go with the i-th --webhook, the last one given applies to the rest
+    static <T> T nth(OptionSet opts, OptionSpec<T> spec, int i) {
+        List<T> values = opts.valuesOf(spec);
+        if (values.isEmpty())
+            return opts.valueOf(spec);
+        return values.get(Math.min(i, values.size() - 1));
+    }
+
+    // Every target gets its own queue, so that a slow one does not hold up the others
+    static WebHookQueue webhook(OptionSet opts, int i, boolean many) {
+        URI url = opts.valuesOf(OPT_WEBHOOK).get(i);
+        String suffix = many ? "." + i : "";
+        Path spill = opts.has(OPT_WEBHOOK_SPILL) ? Path.of(opts.valueOf(OPT_WEBHOOK_SPILL).getPath() + suffix) : null;
+        // Credentials are never carried over to another target
+        List<String> auth = opts.valuesOf(OPT_AUTHORIZATION);
+        String authorization = i < auth.size() ? auth.get(i) : null;
+        WebHooks.check(url, authorization);
+        WebHookQueue queue = new WebHookQueue(i, url, authorization, nth(opts, OPT_WEBHOOK_INFLIGHT, i), nth(opts, OPT_WEBHOOK_QUEUE, i), WebHookQueue.Overflow.parse(opts.valueOf(OPT_WEBHOOK_OVERFLOW)), spill)
+                .retrying(opts.valueOf(OPT_WEBHOOK_RETRIES))
+                .encoded(WebHookEncoder.Format.parse(opts.valueOf(OPT_WEBHOOK_FORMAT)));
+        if (opts.valueOf(OPT_WEBHOOK_BATCH) > 1)
+            queue.batched(opts.valueOf(OPT_WEBHOOK_BATCH), Duration.ofMillis(opts.valueOf(OPT_WEBHOOK_LINGER)), WebHookQueue.Batch.parse(opts.valueOf(OPT_WEBHOOK_BATCH_FORMAT)));
+        if (opts.has(OPT_WEBHOOK_SPOOL)) {
+            Path dir = opts.valueOf(OPT_WEBHOOK_SPOOL).toPath();
+            try {
+                queue.spooled(new WebHookSpool(many ? dir.resolve(String.valueOf(i)) : dir, WebHookSpool.DEFAULT_SEGMENT, opts.valueOf(OPT_WEBHOOK_SPOOL_SIZE) * 1024L * 1024L), SPOOL_RETRY);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can not open webhook spool: " + e.getMessage(), e);
+            }
+        }
+        return queue;
+    }
+
     @Override
     public void onNFCTap(NFCTapData data) {
         log.info("TAP: {}", data);
@@ -71,70 +157,176 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
             idler.cancel(true);
 
         // Clear screen if needed
-        if (opts.has(OPT_CLEAR) && MainWrapper.tapCounter.get() > 0)
+        if (opts.has(OPT_CLEAR) && !jsonOnStdout() && MainWrapper.tapCounter.sum() > 0)
             System.out.print(ANSI_CLEAR_SCREEN);
-        MainWrapper.tapCounter.incrementAndGet();
+        MainWrapper.tapCounter.increment();
+        metrics.count(data.reader(), TapMetrics.Action.TAP);
 
         if (opts.has(OPT_CONTINUE))
-            System.err.printf("# Tap #%d (%s)%n", MainWrapper.tapCounter.get(), data.reader());
+            System.err.printf("# Tap #%d (%s)%n", MainWrapper.tapCounter.sum(), data.reader());
 
-        try {
-            if (data.error() != null) {
-                if (console()) {
-                    System.err.println("WARNING: " + data.error().getMessage());
-                } else {
-                    log.error(data.error().getMessage(), data.error());
-                    // FIXME: log or show notification
-                }
+        data = resolve(data, uids);
+
+        if (data.error() != null) {
+            metrics.error(data.uid() == null ? "read" : "parse");
+            if (console()) {
+                System.err.println("WARNING: " + data.error().getMessage());
+            } else {
+                log.error(data.error().getMessage(), data.error());
+                // FIXME: log or show notification
             }
-            if (data.uid() != null) {
-                if (opts.has(OPT_WEBHOOK)) {
-                    LinkedHashMap<String, String> payload = new LinkedHashMap<>();
-                    payload.put("uid", uid2str(data.uid()));
-                    if (data.url() != null)
-                        payload.put("url", data.url().toString());
-                    MainWrapper.webhookCounter.incrementAndGet();
-                    try {
-                        if (!WebHooks.post(opts.valueOf(OPT_WEBHOOK), payload, opts.valueOf(OPT_AUTHORIZATION)).call()) {
-                            log.error("Failed to post webhook to " + opts.valueOf(OPT_WEBHOOK));
-                        }
-                    } catch (Exception e) {
-                        log.error("Failed to post webhook to " + opts.valueOf(OPT_WEBHOOK) + ": " + e.getMessage(), e);
-                    }
+        }
+
+        // Sinks read the timings on their own threads, while the reader still records dispatch
+        CompletableFuture<Void> done = sinks.submit(data.snapshot());
+
+        if (!daemon) {
+            done.join();
+            done(status);
+        }
+    }
+
+    // Sinks for the outputs asked for, run side by side
+    TapPipeline sinks(OptionSet opts) {
+        TapPipeline pipeline = new TapPipeline(TapPipeline.QUEUE);
+        Duration timeout = Duration.ofSeconds(opts.valueOf(OPT_SINK_TIMEOUT));
+        if (stream != null)
+            pipeline.add("stream", data -> stream.publish(payload(data)), timeout);
+        if (json != null)
+            pipeline.add("json", json::write, timeout);
+        // Webhook queues decide what to do when full, as asked with --webhook-overflow
+        if (opts.has(OPT_WEBHOOK))
+            pipeline.direct("webhook", this::webhook);
+        if (!opts.has(OPT_HEADLESS) && (!opts.has(OPT_WEBHOOK) || opts.has(OPT_BROWSER)))
+            pipeline.add("launch", this::launch, timeout);
+        for (TapProcessor plugin : plugins)
+            pipeline.add(plugin.getClass().getName(), plugin, timeout);
+        return pipeline;
+    }
+
+    void webhook(NFCTapData data) {
+        if (data.uid() == null)
+            return;
+        Map<String, String> payload = payload(data);
+        MainWrapper.webhookCounter.increment();
+        metrics.count(data.reader(), TapMetrics.Action.WEBHOOK);
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (WebHookQueue queue : webhooks)
+            results.add(queue.submit(payload));
+        for (int i = 0; i < results.size() && !daemon; i++) {
+            if (!results.get(i).join())
+                log.error("Failed to post " + WebHooks.label(i, webhook.get(i)));
+        }
+    }
+
+    // Browser, or URL printed to the console
+    void launch(NFCTapData data) {
+        if (data.uid() == null)
+            return;
+        if (data.location() == null && !opts.has(OPT_UID_URL) && !opts.has(OPT_META_URL)) {
+            if (console())
+                System.err.printf("# WARNING: No URL found in tag with UID %s, use -u to specify UID URL\n", data.uid());
+            else
+                log.info("Ignoring tag uid:{} without usable payload", data.uid());
+            metrics.error("no_url");
+            status = 1;
+            return;
+        }
+        try {
+            URI uri = transform(data, opts);
+            count(data);
+            if (console()) {
+                if (opts.has(OPT_BROWSER)) {
+                    openBrowser(uri);
+                } else if (jsonOnStdout()) {
+                    // Only JSON goes to stdout
                 } else {
-                    if (data.url() == null && !opts.has(OPT_UID_URL) && !opts.has(OPT_META_URL)) {
-                        if (console())
-                            System.err.printf("# WARNING: No URL found in tag with UID %s, use -u to specify UID URL\n", uid2str(data.uid()));
-                        else
-                            log.info("Ignoring tag uid:{} without usable payload", uid2str(data.uid()));
-                        if (!daemon) {
-                            done(1);
-                        } else return;
-                    }
-                    URI uri = transform(data, opts);
-                    if (console()) {
-                        if (opts.has(OPT_BROWSER)) {
-                            openBrowser(uri);
-                        } else {
-                            if (opts.has(OPT_QR)) {
-                                System.out.println(new QRCode().generate(uri));
-                            }
-                            System.out.println(uri);
-                        }
-                    } else {
-                        openBrowser(uri);
+                    if (opts.has(OPT_QR)) {
+                        System.out.println(new QRCode().generate(uri));
                     }
+                    System.out.println(uri);
                 }
+            } else {
+                openBrowser(uri);
             }
-        } catch (URISyntaxException e) {
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            metrics.error("transform");
             log.error("Could not transform payload: " + e.getMessage(), e);
+            status = 1;
         }
+    }
 
-        if (!daemon) {
-            done(0);
+    // Tap as sent to webhooks and streamed to subscribers
+    static Map<String, String> payload(NFCTapData data) {
+        LinkedHashMap<String, String> payload = new LinkedHashMap<>();
+        if (data.uid() != null)
+            payload.put("uid", data.uid().toString());
+        if (data.location() != null)
+            payload.put("url", data.location());
+        payload.put("reader", data.reader());
+        payload.put("readtime", String.valueOf(data.readtime().toMillis()));
+        payload.put("timestamp", Instant.now().toString());
+        if (data.type() != null)
+            payload.put("type", data.type());
+        if (data.error() != null)
+            payload.put("error", String.valueOf(data.error().getMessage()));
+        return payload;
+    }
+
+    boolean jsonOnStdout() {
+        return json != null && json.stdout();
+    }
+
+    // Which of the URL-s was launched
+    private void count(NFCTapData data) {
+        if (opts.has(OPT_META_URL)) {
+            MainWrapper.metaCounter.increment();
+            metrics.count(data.reader(), TapMetrics.Action.META);
+        } else if (data.location() != null) {
+            MainWrapper.urlCounter.increment();
+            metrics.count(data.reader(), TapMetrics.Action.URL);
+        } else {
+            MainWrapper.uidCounter.increment();
+            metrics.count(data.reader(), TapMetrics.Action.UID);
         }
     }
 
+    // Tags without a URL get one from the UID table, if listed there
+    static NFCTapData resolve(NFCTapData data, UIDTable uids) {
+        if (uids == null || data.uid() == null || data.location() != null)
+            return data;
+        String location = uids.lookup(data.uid());
+        if (location == null)
+            return data;
+        log.debug("UID {} found in table: {}", data.uid(), location);
+        return data.located(location);
+    }
+
+    // Gives queued webhooks a chance to get delivered
+    void close() {
+        sinks.close(Duration.ofSeconds(2));
+        for (TapProcessor plugin : plugins) {
+            if (plugin instanceof AutoCloseable c) {
+                try {
+                    c.close();
+                } catch (Exception e) {
+                    log.warn("Could not close plugin {}: {}", plugin.getClass().getName(), e.getMessage());
+                }
+            }
+        }
+        if (uids != null)
+            uids.close();
+        if (stream != null)
+            stream.close();
+        if (json != null)
+            json.close();
+        // Targets keep sending while others drain, so they share the time
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        for (WebHookQueue queue : webhooks) {
+            queue.drain(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+            queue.close();
+        }
+    }
 
     void done(int code) {
         log.debug("Done, exiting");
@@ -146,14 +338,14 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
         // Meta, if configured
         URI target;
         if (opts.has(OPT_META_URL)) {
-            target = appendUri(opts.valueOf(OPT_META_URL), "uid", uid2str(data.uid()));
+            target = appendUri(opts.valueOf(OPT_META_URL), "uid", data.uid().toString());
             if (data.url() != null) {
                 // NOTE: appendUri does urlencoding as it constructs a new URI from string components
                 target = appendUri(target, "url", data.url().toASCIIString());
             }
-        } else if (data.url() == null && opts.has(OPT_UID_URL)) {
+        } else if (data.location() == null && opts.has(OPT_UID_URL)) {
             // or UID, if url is empty
-            target = appendUri(opts.valueOf(OPT_UID_URL), "uid", uid2str(data.uid()));
+            target = appendUri(opts.valueOf(OPT_UID_URL), "uid", data.uid().toString());
         } else {
             // or actual ndef url
             target = data.url();
@@ -167,10 +359,6 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
         return new URI(oldUri.getScheme(), oldUri.getAuthority(), oldUri.getPath(), oldUri.getQuery() == null ? append : oldUri.getQuery() + "&" + append, oldUri.getFragment());
     }
 
-    static String uid2str(byte[] uid) {
-        return HexUtils.bin2hex(uid).toLowerCase();
-    }
-
     public static Process exec(String... args) throws IOException {
         log.info("Executing {}", Arrays.stream(args).toList());
         if (System.console() != null)
@@ -183,22 +371,34 @@ public class NFC4PC extends CLIOptions implements TapProcessor {
 
     public static void openBrowser(URI url, OptionSet opts) {
         log.info("Opening browser for {}", url);
+        TapEvents.Browser event = new TapEvents.Browser();
+        event.begin();
         try {
             String browser_env = System.getenv("BROWSER");
+            String command;
             if (opts.hasArgument(OPT_BROWSER)) {
                 log.info("Launching browser: " + opts.valueOf(OPT_BROWSER) + " " + url.toString());
-                exec(opts.valueOf(OPT_BROWSER), url.toString());
+                command = opts.valueOf(OPT_BROWSER);
+                exec(command, url.toString());
             } else if (browser_env != null) {
                 log.info("Launching browser: " + browser_env + " " + url.toString());
-                exec(browser_env, url.toString());
+                command = browser_env;
+                exec(command, url.toString());
             } else {
                 Desktop desktop = Desktop.getDesktop();
                 if (desktop != null && desktop.isSupported(Desktop.Action.BROWSE)) {
+                    command = "desktop";
                     desktop.browse(url);
                 } else {
                     throw new IllegalStateException("No browser config and desktop action not available");
                 }
             }
+            event.end();
+            if (event.shouldCommit()) {
+                event.url = url.toString();
+                event.command = command;
+                event.commit();
+            }
         } catch (IOException e) {
             log.error("Could not start browser: " + e.getMessage(), e);
             throw new RuntimeException(e);
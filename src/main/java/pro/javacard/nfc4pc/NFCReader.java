@@ -10,72 +10,261 @@ import org.slf4j.LoggerFactory;
 import javax.smartcardio.Card;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
 import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
-public class NFCReader implements PCSCMonitor {
+public class NFCReader implements PCSCMonitor, AutoCloseable {
     static final Logger log = LoggerFactory.getLogger(NFCReader.class);
 
-    // Let's have a thread per reader and a monitoring thread, in addition to the UI thread. Many threads, yay!
-    // This is indeed too many threads, but it is also fun. At some point have an event thread and a worker thread and an outgoing read queue.
-    private final TerminalManager manager = TerminalManager.getDefault();
-    private final Thread pcscMonitor = new Thread(new HandyTerminalsMonitor(manager, this));
+    // A monitoring thread and a small pool of workers shared by all readers. Work of a reader is done
+    // one task at a time, in order, on whichever worker is free.
+    static final int WORKERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    static final long EVENT_WAIT = 10_000;
+    static final long EVENT_RETRY = 1_000;
+    private final TerminalManager manager;
+    private final Thread pcscMonitor;
+    private final ThreadPoolExecutor pool;
 
-    // CardTerminal instance is kept per thread.
-    private final ConcurrentHashMap<String, ExecutorService> readerThreads = new ConcurrentHashMap<>();
-    static ThreadLocal<CardTerminal> readers = ThreadLocal.withInitial(() -> null);
+    // Worker and CardTerminal instance per reader, dropped when the reader goes away
+    final ConcurrentHashMap<String, ReaderWorker> workers = new ConcurrentHashMap<>();
 
     private final TapProcessor processor;
+    private volatile TapDedup dedup;
+    private volatile TapCache cache;
+    private final ProbePlanner planner = new ProbePlanner(ProbePlanner.DEFAULT_SIZE);
 
     public NFCReader(TapProcessor processor) {
+        this(processor, false);
+    }
+
+    // With events, card insertions are waited for directly instead of diffing reader lists
+    public NFCReader(TapProcessor processor, boolean events) {
+        this(processor, TerminalManager.getDefault(), events);
+    }
+
+    // Terminals can come from elsewhere, like simulated readers when testing
+    NFCReader(TapProcessor processor, TerminalManager manager) {
+        this(processor, manager, false);
+    }
+
+    NFCReader(TapProcessor processor, TerminalManager manager, boolean events) {
         this.processor = processor;
+        this.manager = manager;
+        pool = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "Reader worker");
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
         // start monitor thread
+        pcscMonitor = new Thread(events ? new CardEvents() : new HandyTerminalsMonitor(manager, this));
         pcscMonitor.setDaemon(true);
-        pcscMonitor.setName("PC/SC monitor");
+        pcscMonitor.setName(events ? "PC/SC events" : "PC/SC monitor");
         pcscMonitor.start();
     }
 
-    // This is a fun exercise, we have a thread per reader and use the thread name for logging as well as reader access.
-    private void onReaderThread(String name, Runnable r) {
-        readerThreads.computeIfAbsent(name, (n) -> Executors.newSingleThreadExecutor(new NamedReaderThreadFactory(n))).submit(r);
+    private void onReaderThread(String name, Consumer<ReaderWorker> task) {
+        // Submitted within the map, so that retain() never drops a worker that has just been given a task
+        workers.compute(name, (n, worker) -> {
+            ReaderWorker w = worker == null ? new ReaderWorker(n) : worker;
+            w.submit(() -> task.accept(w));
+            return w;
+        });
+    }
+
+    // Repeated taps of a tag within the window are dropped before reading NDEF
+    public NFCReader suppress(Duration window, int size) {
+        dedup = window.isZero() ? null : new TapDedup(window, size);
+        return this;
+    }
+
+    // Results of read-only tags are remembered, so that NDEF is not read again
+    public NFCReader cached(int size) {
+        cache = size > 0 ? new TapCache(size) : null;
+        return this;
+    }
+
+    ProbePlanner planner() {
+        return planner;
+    }
+
+    TapCache cache() {
+        return cache;
+    }
+
+    TapDedup dedup() {
+        return dedup;
     }
 
     public void waitForever() throws InterruptedException {
         pcscMonitor.join();
     }
 
-    // ThreadFactory with single purpose: makes threads with a given name.
-    static final class NamedReaderThreadFactory implements ThreadFactory {
-        final String n;
+    // Stops watching readers and lets go of the workers, taps in progress are abandoned
+    @Override
+    public void close() {
+        pcscMonitor.interrupt();
+        pool.shutdownNow();
+    }
+
+    // Runs the tasks of a reader one at a time on the shared pool. Worker thread carries the name of
+    // the reader while running them, for logging.
+    final class ReaderWorker {
+        final String name;
+        // Only used from tasks, which never overlap
+        CardTerminal terminal;
+        // Time from card detection to start of reading, written only from tasks
+        volatile long detections;
+        volatile long detectionNanos;
+        volatile long maxDetectionNanos;
+        // Time spent in each stage of a tap
+        final LatencyHistogram[] latencies = new LatencyHistogram[TapTimings.STAGES.length];
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Reader went away while busy, the terminal is opened again for the next task
+        volatile boolean stale;
 
-        public NamedReaderThreadFactory(String name) {
-            n = name;
+        ReaderWorker(String name) {
+            this.name = name;
+            for (int i = 0; i < latencies.length; i++)
+                latencies[i] = new LatencyHistogram();
         }
 
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, n);
-            t.setDaemon(true);
-            return t;
+        void record(TapTimings timings) {
+            for (TapTimings.Stage s : TapTimings.STAGES)
+                if (timings.nanos(s) > 0)
+                    latencies[s.ordinal()].record(timings.nanos(s));
+        }
+
+        LatencyHistogram latency(TapTimings.Stage stage) {
+            return latencies[stage.ordinal()];
+        }
+
+        boolean idle() {
+            return !scheduled.get() && tasks.isEmpty();
+        }
+
+        void submit(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                pool.execute(this::run);
+        }
+
+        private void run() {
+            Thread t = Thread.currentThread();
+            String previous = t.getName();
+            t.setName(name);
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    if (stale) {
+                        stale = false;
+                        terminal = null;
+                    }
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("Failed to handle reader " + name + ": " + e.getMessage(), e);
+                    }
+                }
+            } finally {
+                t.setName(previous);
+                scheduled.set(false);
+                // Task added after the last poll
+                if (!tasks.isEmpty())
+                    schedule();
+            }
+        }
+    }
+
+    // Waits for card insertions on all readers with a single call, which is SCardGetStatusChange
+    // underneath, and taps the readers that got a card.
+    final class CardEvents implements Runnable {
+        @Override
+        public void run() {
+            CardTerminals terminals = manager.terminals();
+            boolean firstRun = true;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    boolean changed = terminals.waitForChange(EVENT_WAIT);
+                    long detected = System.nanoTime();
+                    List<CardTerminal> inserted = terminals.list(CardTerminals.State.CARD_INSERTION);
+                    // Require fresh tap
+                    if (!firstRun) {
+                        for (CardTerminal t : inserted) {
+                            log.debug("Card inserted to \"{}\"", t.getName());
+                            tap(t.getName(), detected);
+                        }
+                    }
+                    firstRun = false;
+                    // Quiet moment, look for readers that are gone
+                    if (!changed)
+                        retain(terminals.list().stream().map(CardTerminal::getName).collect(Collectors.toSet()));
+                } catch (CardException e) {
+                    // No readers or PC/SC restarting
+                    log.debug("Waiting for card events failed: {}", SCard.getExceptionMessage(e));
+                    retain(Set.of());
+                    try {
+                        Thread.sleep(EVENT_RETRY);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    // Forgets readers that are gone, with their terminals. A busy worker is kept until it is done, so that a
+    // reader that comes back in the meantime is not used by two workers at once
+    void retain(Collection<String> present) {
+        for (String n : workers.keySet()) {
+            if (present.contains(n))
+                continue;
+            workers.computeIfPresent(n, (k, w) -> {
+                if (!w.idle()) {
+                    w.stale = true;
+                    return w;
+                }
+                log.debug("Reader \"{}\" removed", k);
+                return null;
+            });
         }
     }
 
     private final Map<String, Boolean> readerStates = new HashMap<>();
+    private boolean firstRun = true;
 
     @Override
     public void readerListChanged(List<PCSCReader> list) {
         // Track changes. PC/SC monitor thread
-        boolean firstRun = readerStates.isEmpty(); // Require fresh tap
+        boolean firstRun = this.firstRun; // Require fresh tap
+        this.firstRun = false;
 
         Map<String, Boolean> newStates = new HashMap<>();
         list.forEach(e -> newStates.put(e.getName(), e.isPresent()));
+        readerStates.keySet().retainAll(newStates.keySet());
+        retain(newStates.keySet());
 
         for (PCSCReader e : list) {
             String n = e.getName();
@@ -85,7 +274,7 @@ public class NFCReader implements PCSCMonitor {
                 log.debug("Detected change in reader \"{}\"", n);
 
                 // Try to read
-                onReaderThread(n, this::tryToRead);
+                tap(n, System.nanoTime());
             }
             // Store state of _this_ notification
             readerStates.put(n, newStates.get(n));
@@ -93,58 +282,72 @@ public class NFCReader implements PCSCMonitor {
     }
 
 
-    private void tryToRead() {
-        // This is called on the named thread of the reader.
-        String n = Thread.currentThread().getName();
+    // Read whatever is on the reader, on the thread of the reader
+    void tap(String reader) {
+        tap(reader, System.nanoTime());
+    }
+
+    void tap(String reader, long detected) {
+        onReaderThread(reader, worker -> {
+            long latency = System.nanoTime() - detected;
+            worker.detections++;
+            worker.detectionNanos += latency;
+            worker.maxDetectionNanos = Math.max(worker.maxDetectionNanos, latency);
+            log.debug("Reading \"{}\" {}us after detection", reader, latency / 1000);
+            tryToRead(worker);
+        });
+    }
+
+    private void tryToRead(ReaderWorker worker) {
+        String n = worker.name;
 
         // We manually open the instance
-        CardTerminal t = readers.get();
+        CardTerminal t = worker.terminal;
         if (t == null) {
             t = log.isDebugEnabled() ? LoggingCardTerminal.getInstance(manager.getTerminal(n), System.err) : manager.getTerminal(n);
-            readers.set(t);
+            worker.terminal = t;
         }
 
         Card c = null;
+        TapTimings timings = new TapTimings();
+        TapEvents.Tap event = new TapEvents.Tap();
+        event.begin();
         try {
             // Try to get exclusive access for a second
+            long mark = System.nanoTime();
             c = t.connect("*");
+            mark = timings.lap(TapTimings.Stage.CONNECT, mark);
             c.beginExclusive(); // Use locking, as this is short read
+            mark = timings.lap(TapTimings.Stage.EXCLUSIVE, mark);
             // get UID
-            APDUBIBO b = new APDUBIBO(CardBIBO.wrap(c));
+            APDUBIBO b = new APDUBIBO(TapEvents.recording(CardBIBO.wrap(c), n));
 
-            long start = System.currentTimeMillis();
+            long start = mark;
             var uid = NDEF.getUID(b);
+            timings.lap(TapTimings.Stage.UID, mark);
             if (uid.isEmpty()) {
                 log.info("No UID, assuming not a supported contactless reader/device");
-                processor.onNFCTap(new NFCTapData(n, new RuntimeException("No UID, unsupported reader and/or tag")));
+                dispatch(worker, event, new NFCTapData(n, null, null, null, 0, new RuntimeException("No UID, unsupported reader and/or tag"), timings));
                 return;
             }
-            // Type 2 > Type 4
-            var url = NDEF.getType2(b).or(() -> NDEF.getType4(b));
-            Duration readtime = Duration.ofMillis(System.currentTimeMillis() - start);
-
-
-            String location = null;
-            if (url.isPresent()) {
-                try {
-                    // TODO: detect unknown payload. TODO: warn if smart poster
-                    location = NDEF.msg2url(url.get());
-                    processor.onNFCTap(new NFCTapData(n, uid.get(), URI.create(location), readtime, null));
-                } catch (IllegalArgumentException e) {
-                    processor.onNFCTap(new NFCTapData(n, uid.get(), e));
-                    return;
-                    //notifyUser(n, "Could not parse message etc");
-                }
-            } else {
-                processor.onNFCTap(new NFCTapData(n, uid.get(), null, readtime, null));
+            TapDedup dedup = this.dedup;
+            if (dedup != null && !dedup.accept(n, uid.get())) {
+                log.debug("Suppressed repeated tap of {}", uid.get());
+                return;
             }
+            TapCache.Result result = read(b, n, c.getATR().getBytes(), uid.get(), timings);
+            long readtime = System.nanoTime() - start;
+            dispatch(worker, event, new NFCTapData(n, uid.get(), result.type(), result.location(), result.url(), readtime, result.error(), timings));
+            // Failed reads are not remembered, so that the retry goes through
+            if (dedup != null && result.error() == null)
+                dedup.record(n, uid.get());
         } catch (BIBOException e) {
             // TODO: notify exclusively opened readers ?
             log.error("Could not connect to or read: " + e.getMessage(), e);
-            processor.onNFCTap(new NFCTapData(n, new IOException("Could not read: " + SCard.getExceptionMessage(e))));
+            dispatch(worker, event, new NFCTapData(n, null, null, null, 0, new IOException("Could not read: " + SCard.getExceptionMessage(e)), timings));
         } catch (Exception e) {
             log.error("Could not connect to or read: " + e.getMessage(), e);
-            processor.onNFCTap(new NFCTapData(n, new IOException("Could not read: " + SCard.getExceptionMessage(e))));
+            dispatch(worker, event, new NFCTapData(n, null, null, null, 0, new IOException("Could not read: " + SCard.getExceptionMessage(e)), timings));
         } finally {
             if (c != null)
                 try {
@@ -156,6 +359,70 @@ public class NFCReader implements PCSCMonitor {
     }
 
 
+    // Hands the tap over and records how long each stage took
+    private void dispatch(ReaderWorker worker, TapEvents.Tap event, NFCTapData data) {
+        long start = System.nanoTime();
+        processor.onNFCTap(data);
+        data.timings().lap(TapTimings.Stage.DISPATCH, start);
+        event.end(data);
+        worker.record(data.timings());
+        log.debug("{}", data.timings());
+    }
+
+    // What a probe for one tag type found
+    private record Probe(ProbePlanner.TagType type, byte[] cc, boolean readOnly, TapCache.Result hit, Optional<byte[]> url) {
+        boolean found() {
+            return hit != null || url.isPresent();
+        }
+    }
+
+    // Type 2 > Type 4, unless the ATR tells otherwise. Read-only tags are looked up from the cache once the
+    // capability container is known.
+    private TapCache.Result read(APDUBIBO b, String n, byte[] atr, UID uid, TapTimings timings) throws BIBOException {
+        ProbePlanner.Plan plan = planner.plan(n, atr);
+        Probe probe = null;
+        for (ProbePlanner.TagType type : plan.probes) {
+            probe = probe(b, n, uid, type, timings);
+            if (probe.found())
+                break;
+        }
+        planner.outcome(n, atr, plan, probe.found() ? probe.type() : null);
+        if (probe.hit() != null) {
+            log.debug("Using cached result for {}", uid);
+            return probe.hit();
+        }
+        if (probe.url().isEmpty())
+            return new TapCache.Result(null, null, null);
+
+        long mark = System.nanoTime();
+        String type = probe.type().label;
+        TapCache.Result result;
+        try {
+            // TODO: detect unknown payload
+            // Parsed here, so that a tag with an invalid URL is a failed read and not a failed launch
+            result = new TapCache.Result(type, URI.create(NDEF.msg2url(probe.url().get())), null);
+        } catch (IllegalArgumentException e) {
+            result = new TapCache.Result(type, null, e);
+        }
+        timings.lap(TapTimings.Stage.PARSE, mark);
+        TapCache cache = this.cache;
+        if (cache != null && probe.readOnly())
+            cache.put(uid, type, probe.cc(), result);
+        return result;
+    }
+
+    private Probe probe(APDUBIBO b, String n, UID uid, ProbePlanner.TagType type, TapTimings timings) throws BIBOException {
+        TapCache cache = this.cache;
+        boolean type2 = type == ProbePlanner.TagType.TYPE2;
+        long mark = System.nanoTime();
+        byte[] cc = (type2 ? NDEF.getType2CC(b) : NDEF.getType4CC(b)).orElse(null);
+        boolean readOnly = cc != null && (type2 ? NDEF.type2ReadOnly(cc) : NDEF.type4ReadOnly(cc));
+        TapCache.Result hit = cache != null && readOnly ? cache.get(uid, type.label, cc) : null;
+        Optional<byte[]> url = hit != null || cc == null ? Optional.empty() : type2 ? NDEF.getType2(b, n, cc) : NDEF.getType4(b, n, cc);
+        timings.lap(type2 ? TapTimings.Stage.TYPE2 : TapTimings.Stage.TYPE4, mark);
+        return new Probe(type, cc, readOnly, hit, url);
+    }
+
     @Override
     public void readerListErrored(Throwable throwable) {
         log.error("PC/SC Error: " + throwable.getMessage());
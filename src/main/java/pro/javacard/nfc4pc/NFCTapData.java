@@ -1,25 +1,108 @@
 package pro.javacard.nfc4pc;
 
-import apdu4j.core.HexUtils;
-
 import java.net.URI;
 import java.time.Duration;
 
-public record NFCTapData(String reader, byte[] uid, URI url, Duration readtime, Exception error) {
+// Result of a tap. URL from a tag is checked when read, URL-s from elsewhere are turned into URI when asked for.
+public final class NFCTapData {
+    private final String reader;
+    private final UID uid;
+    private final String type; // "type2" or "type4" when NDEF was read
+    private final String location;
+    private final long readtime; // nanoseconds
+    private final Exception error;
+    private final TapTimings timings;
+    private URI url;
+
+    public NFCTapData(String reader, UID uid, String location, long readtime, Exception error) {
+        this(reader, uid, null, location, readtime, error);
+    }
+
+    public NFCTapData(String reader, UID uid, String type, String location, long readtime, Exception error) {
+        this(reader, uid, type, location, readtime, error, new TapTimings());
+    }
+
+    public NFCTapData(String reader, UID uid, String type, String location, long readtime, Exception error, TapTimings timings) {
+        this(reader, uid, type, location, null, readtime, error, timings);
+    }
+
+    // With the URI already parsed from location
+    NFCTapData(String reader, UID uid, String type, String location, URI url, long readtime, Exception error, TapTimings timings) {
+        this.reader = reader;
+        this.uid = uid;
+        this.type = type;
+        this.location = location;
+        this.readtime = readtime;
+        this.error = error;
+        this.timings = timings;
+        this.url = url;
+    }
+
     public NFCTapData(String reader, Exception error) {
-        this(reader, null, null, null, error);
+        this(reader, null, null, 0, error);
+    }
+
+    public NFCTapData(String reader, UID uid, Exception error) {
+        this(reader, uid, null, 0, error);
+    }
+
+    public NFCTapData(String reader, UID uid, URI url) {
+        this(reader, uid, null, url == null ? null : url.toString(), url, 0, null, new TapTimings());
+    }
+
+    public String reader() {
+        return reader;
+    }
+
+    public UID uid() {
+        return uid;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    // URL string from the tag, if any
+    public String location() {
+        return location;
+    }
+
+    // Throws IllegalArgumentException if the tag contains an invalid URL
+    public URI url() {
+        if (url == null && location != null)
+            url = URI.create(location);
+        return url;
+    }
+
+    // Same tap with a URL from elsewhere, for tags that carry none
+    public NFCTapData located(String location) {
+        return new NFCTapData(reader, uid, type, location, readtime, error, timings);
+    }
+
+    // Same tap with a copy of the timings, for handing to other threads
+    public NFCTapData snapshot() {
+        return new NFCTapData(reader, uid, type, location, url, readtime, error, timings.copy());
+    }
+
+    public Duration readtime() {
+        return Duration.ofNanos(readtime);
+    }
+
+    public long readtimeNanos() {
+        return readtime;
     }
 
-    public NFCTapData(String reader, byte[] uid, Exception error) {
-        this(reader, uid, null, null, error);
+    public Exception error() {
+        return error;
     }
 
-    public NFCTapData(String reader, byte[] uid, URI url) {
-        this(reader, uid, url, null, null);
+    // Time spent in each stage, of reading and of handling the tap
+    public TapTimings timings() {
+        return timings;
     }
 
     @Override
     public String toString() {
-        return String.format("TapData[reader=%s, uid=%s, url=%s, readtime=%dms, error=%s]", reader, HexUtils.bin2hex(uid), url, readtime.toMillis(), error);
+        return String.format("TapData[reader=%s, uid=%s, type=%s, url=%s, readtime=%dms, error=%s]", reader, uid, type, location, readtime / 1_000_000, error);
     }
 }
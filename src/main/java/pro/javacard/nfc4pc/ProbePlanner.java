@@ -0,0 +1,132 @@
+package pro.javacard.nfc4pc;
+
+import apdu4j.core.HexUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static pro.javacard.nfc4pc.ProbePlanner.TagType.TYPE2;
+import static pro.javacard.nfc4pc.ProbePlanner.TagType.TYPE4;
+
+// Picks the order of NDEF probes from the ATR, so that a tag is not asked for what it can not have.
+// A PC/SC part 3 storage card ATR with ISO 14443 A part 3 is a memory tag that does not do APDU-s, so
+// only Type 2 is tried. A contactless card with ISO 14443-4 is tried for Type 4 first. What worked
+// for an ATR on a reader is tried first the next time. Every probe that is skipped saves at least
+// the APDU it starts with.
+public class ProbePlanner {
+    static final Logger log = LoggerFactory.getLogger(ProbePlanner.class);
+
+    public enum TagType {
+        TYPE2, TYPE4;
+
+        final String label = name().toLowerCase();
+    }
+
+    record Key(String reader, ByteBuffer atr) {
+    }
+
+    public enum Plan {
+        TYPE2_FIRST(TYPE2, TYPE4), TYPE4_FIRST(TYPE4, TYPE2), TYPE2_ONLY(TYPE2);
+
+        final TagType[] probes;
+        final String label = name().toLowerCase();
+
+        Plan(TagType... probes) {
+            this.probes = probes;
+        }
+    }
+
+    static final Plan[] PLANS = Plan.values();
+    // What was done before there was a planner
+    static final Plan DEFAULT = Plan.TYPE2_FIRST;
+    static final int DEFAULT_SIZE = 256;
+
+    // PC/SC part 3: 3B 8F 80 01 80 4F 0C <RID> SS NN NN 00 00 00 00 TCK
+    static final byte[] PCSC_RID = HexUtils.hex2bin("A000000306");
+    static final int STANDARD_ISO14443A_3 = 0x03;
+
+    private final Map<Key, TagType> learned;
+    final LongAdder[] plans = new LongAdder[PLANS.length];
+    final LongAdder skipped = new LongAdder();
+    final LongAdder mispredicted = new LongAdder();
+
+    public ProbePlanner(int size) {
+        for (int i = 0; i < plans.length; i++)
+            plans[i] = new LongAdder();
+        learned = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, TagType> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    // Contactless, with historical bytes following
+    static boolean contactless(byte[] atr) {
+        return atr.length >= 4 && atr[0] == 0x3B && (atr[1] & 0xF0) == 0x80 && atr[2] == (byte) 0x80 && atr[3] == 0x01;
+    }
+
+    // Card standard of a storage card, or -1 if not a storage card
+    static int storage(byte[] atr) {
+        if (!contactless(atr) || atr.length < 15 || atr[4] != (byte) 0x80 || atr[5] != 0x4F)
+            return -1;
+        if (!Arrays.equals(atr, 7, 12, PCSC_RID, 0, PCSC_RID.length))
+            return -1;
+        return atr[12] & 0xFF;
+    }
+
+    static Key key(String reader, byte[] atr) {
+        return new Key(reader, ByteBuffer.wrap(atr));
+    }
+
+    public Plan plan(String reader, byte[] atr) {
+        Plan plan = plan(atr, learned(reader, atr));
+        plans[plan.ordinal()].increment();
+        if (log.isDebugEnabled())
+            log.debug("Probe plan for {}: {}", HexUtils.bin2hex(atr), plan);
+        return plan;
+    }
+
+    static Plan plan(byte[] atr, TagType learned) {
+        int standard = storage(atr);
+        if (standard == STANDARD_ISO14443A_3)
+            return Plan.TYPE2_ONLY;
+        if (learned != null)
+            return learned == TYPE4 ? Plan.TYPE4_FIRST : Plan.TYPE2_FIRST;
+        if (contactless(atr) && standard < 0)
+            return Plan.TYPE4_FIRST;
+        return DEFAULT;
+    }
+
+    private synchronized TagType learned(String reader, byte[] atr) {
+        return learned.get(key(reader, atr));
+    }
+
+    // The probe that found NDEF, or null if none did
+    public void outcome(String reader, byte[] atr, Plan plan, TagType found) {
+        if (found != null) {
+            synchronized (this) {
+                learned.put(key(reader, atr), found);
+            }
+        }
+        int planned = probes(plan.probes, found);
+        int before = probes(DEFAULT.probes, found);
+        if (planned < before)
+            skipped.add(before - planned);
+        else if (planned > before)
+            mispredicted.increment();
+    }
+
+    // Probes that run until one finds NDEF
+    static int probes(TagType[] probes, TagType found) {
+        for (int i = 0; i < probes.length; i++)
+            if (probes[i] == found)
+                return i + 1;
+        return probes.length;
+    }
+}
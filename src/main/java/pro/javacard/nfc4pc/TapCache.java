@@ -0,0 +1,64 @@
+package pro.javacard.nfc4pc;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Parsed results of read-only tags, so that a repeat tap of a known tag needs only the UID and
+// capability container. The capability container is part of the key, so a tag that has been
+// reformatted with the same UID is read again. Least recently used entries go first.
+public class TapCache {
+    record Key(UID uid, String type, byte[] cc) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.uid.equals(uid) && k.type.equals(type) && Arrays.equals(k.cc, cc);
+        }
+
+        @Override
+        public int hashCode() {
+            return (uid.hashCode() * 31 + type.hashCode()) * 31 + Arrays.hashCode(cc);
+        }
+    }
+
+    // URL from the tag or the error from parsing it
+    record Result(String type, URI url, IllegalArgumentException error) {
+        String location() {
+            return url == null ? null : url.toString();
+        }
+    }
+
+    static final int DEFAULT_SIZE = 1024;
+
+    private final Map<Key, Result> entries;
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    public TapCache(int size) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                if (size() <= size)
+                    return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public synchronized Result get(UID uid, String type, byte[] cc) {
+        Result r = entries.get(new Key(uid, type, cc));
+        (r == null ? misses : hits).increment();
+        return r;
+    }
+
+    public synchronized void put(UID uid, String type, byte[] cc, Result result) {
+        entries.put(new Key(uid, type, cc.clone()), result);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,71 @@
+package pro.javacard.nfc4pc;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Suppresses repeated taps of the same tag on the same reader within a time window. Only taps that
+// were read count, so a failed read can be retried at once. Every repeat extends the window, so a
+// badge held on or tapped again and again stays suppressed.
+public class TapDedup {
+    record Key(String reader, UID uid) {
+    }
+
+    static final int DEFAULT_SIZE = 1024;
+
+    private final long window;
+    private final int size;
+    private final ConcurrentHashMap<Key, Long> seen = new ConcurrentHashMap<>();
+    final LongAdder suppressed = new LongAdder();
+
+    public TapDedup(Duration window, int size) {
+        this.window = window.toNanos();
+        this.size = size;
+    }
+
+    // True if the tap should be processed
+    public boolean accept(String reader, UID uid) {
+        return accept(reader, uid, System.nanoTime());
+    }
+
+    boolean accept(String reader, UID uid, long now) {
+        Key key = new Key(reader, uid);
+        Long last = seen.get(key);
+        if (last != null && now - last < window) {
+            seen.put(key, now);
+            suppressed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // Remembers a tap that was read, so that repeats of it are suppressed
+    public void record(String reader, UID uid) {
+        record(reader, uid, System.nanoTime());
+    }
+
+    void record(String reader, UID uid, long now) {
+        seen.put(new Key(reader, uid), now);
+        if (seen.size() > size)
+            evict(now);
+    }
+
+    // Expired entries first, then the oldest ones
+    private void evict(long now) {
+        seen.values().removeIf(t -> now - t >= window);
+        while (seen.size() > size) {
+            Map.Entry<Key, Long> oldest = null;
+            for (Map.Entry<Key, Long> e : seen.entrySet())
+                if (oldest == null || e.getValue() - oldest.getValue() < 0)
+                    oldest = e;
+            if (oldest == null)
+                break;
+            seen.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    int size() {
+        return seen.size();
+    }
+}
@@ -0,0 +1,138 @@
+package pro.javacard.nfc4pc;
+
+import apdu4j.core.BIBO;
+import apdu4j.core.BIBOException;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.net.URI;
+
+// Flight recorder events, for profiling taps in production with "jcmd <pid> JFR.start".
+// Fields are only filled in when a recording has the event enabled, otherwise the cost is a check.
+final class TapEvents {
+    private TapEvents() {
+    }
+
+    @Name("nfc4pc.Tap")
+    @Label("Tap")
+    @Category("NFC4PC")
+    @Description("Reading of a tag and handling of the result")
+    static final class Tap extends Event {
+        @Label("Reader")
+        String reader;
+        @Label("UID")
+        String uid;
+        @Label("Type")
+        String type;
+        @Label("URL")
+        String url;
+        @Label("Error")
+        String error;
+
+        void end(NFCTapData data) {
+            end();
+            if (shouldCommit()) {
+                reader = data.reader();
+                uid = data.uid() == null ? null : data.uid().toString();
+                type = data.type();
+                url = data.location();
+                error = data.error() == null ? null : data.error().getMessage();
+                commit();
+            }
+        }
+    }
+
+    @Name("nfc4pc.APDU")
+    @Label("APDU")
+    @Category("NFC4PC")
+    @Description("Command sent to a tag and its response")
+    static final class APDU extends Event {
+        @Label("Reader")
+        String reader;
+        @Label("INS")
+        int ins;
+        @Label("SW")
+        int sw;
+        @Label("Command")
+        @DataAmount
+        int command;
+        @Label("Response")
+        @DataAmount
+        int response;
+    }
+
+    @Name("nfc4pc.Webhook")
+    @Label("Webhook")
+    @Category("NFC4PC")
+    @Description("Webhook request, from sending until the response status")
+    static final class Webhook extends Event {
+        @Label("Target")
+        @Description("Index of the webhook, in the order given")
+        int target;
+        @Label("Host")
+        @Description("Scheme, host and port, without path or query")
+        String host;
+        @Label("Status")
+        @Description("Zero if no response")
+        int status;
+        @Label("Body")
+        @DataAmount
+        long body;
+        @Label("Error")
+        String error;
+
+        void end(int index, URI url, long length, int code, Throwable e) {
+            end();
+            if (shouldCommit()) {
+                target = index;
+                host = WebHooks.host(url);
+                body = length;
+                status = code;
+                error = e == null ? null : e.getMessage();
+                commit();
+            }
+        }
+    }
+
+    @Name("nfc4pc.Browser")
+    @Label("Browser launch")
+    @Category("NFC4PC")
+    static final class Browser extends Event {
+        @Label("URL")
+        String url;
+        @Label("Command")
+        @Description("Browser executable, or desktop when launched by the desktop")
+        String command;
+    }
+
+    // Records every APDU that goes through
+    static BIBO recording(BIBO bibo, String reader) {
+        return new BIBO() {
+            @Override
+            public byte[] transceive(byte[] command) throws BIBOException {
+                APDU event = new APDU();
+                event.begin();
+                byte[] response = bibo.transceive(command);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.reader = reader;
+                    event.ins = command.length > 1 ? command[1] & 0xFF : 0;
+                    event.sw = response.length >= 2 ? ((response[response.length - 2] & 0xFF) << 8) | (response[response.length - 1] & 0xFF) : 0;
+                    event.command = command.length;
+                    event.response = response.length;
+                    event.commit();
+                }
+                return response;
+            }
+
+            @Override
+            public void close() {
+                bibo.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package pro.javacard.nfc4pc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of taps, of what was done with them and of errors, per reader. Written from reader
+// threads and read by the metrics endpoint.
+public class TapMetrics {
+    public enum Action {
+        TAP, URL, UID, META, WEBHOOK;
+
+        final String label = name().toLowerCase();
+    }
+
+    static final Action[] ACTIONS = Action.values();
+
+    final Map<String, LongAdder[]> readers = new ConcurrentHashMap<>();
+    final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public void count(String reader, Action action) {
+        readers.computeIfAbsent(reader, r -> {
+            LongAdder[] counters = new LongAdder[ACTIONS.length];
+            for (int i = 0; i < counters.length; i++)
+                counters[i] = new LongAdder();
+            return counters;
+        })[action.ordinal()].increment();
+    }
+
+    public void error(String kind) {
+        errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+    }
+
+    long get(String reader, Action action) {
+        LongAdder[] counters = readers.get(reader);
+        return counters == null ? 0 : counters[action.ordinal()].sum();
+    }
+}
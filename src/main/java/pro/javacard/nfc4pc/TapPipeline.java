@@ -0,0 +1,169 @@
+package pro.javacard.nfc4pc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Passes every tap to a number of sinks at once. Every sink has a thread and a queue of its own and
+// a time limit per tap, so that a slow or stuck sink holds up neither the others nor the reader.
+// Sinks with backpressure of their own, like webhook queues, are handed the tap directly instead.
+public class TapPipeline implements TapProcessor, AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(TapPipeline.class);
+
+    static final int QUEUE = 64;
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    static final class Sink {
+        final String name;
+        final TapProcessor processor;
+        final Duration timeout; // zero for no limit
+        final ThreadPoolExecutor executor; // null if run on the thread of the tap
+        final LongAdder processed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder timedOut = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        // Time the sink spends on a tap, not counting time in the queue
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Sink(String name, TapProcessor processor, Duration timeout, int queue) {
+            this.name = name;
+            this.processor = processor;
+            this.timeout = timeout;
+            executor = queue == 0 ? null : new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue), r -> {
+                Thread t = new Thread(r, "Sink " + name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    final List<Sink> sinks = new CopyOnWriteArrayList<>();
+    private final int queue;
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Sink watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public TapPipeline(int queue) {
+        this.queue = queue;
+    }
+
+    public TapPipeline add(String name, TapProcessor processor) {
+        return add(name, processor, DEFAULT_TIMEOUT);
+    }
+
+    public TapPipeline add(String name, TapProcessor processor, Duration timeout) {
+        log.info("Tap sink: {} (timeout {})", name, timeout.isZero() ? "none" : timeout);
+        sinks.add(new Sink(name, processor, timeout, queue));
+        return this;
+    }
+
+    // Run on the thread of the tap, without a queue or a time limit
+    public TapPipeline direct(String name, TapProcessor processor) {
+        log.info("Tap sink: {} (direct)", name);
+        sinks.add(new Sink(name, processor, Duration.ZERO, 0));
+        return this;
+    }
+
+    @Override
+    public void onNFCTap(NFCTapData data) {
+        submit(data);
+    }
+
+    // Completes when every sink is done with the tap, has run out of time or has dropped it
+    public CompletableFuture<Void> submit(NFCTapData data) {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[sinks.size()];
+        int i = 0;
+        for (Sink s : sinks)
+            results[i++] = submit(s, data);
+        return CompletableFuture.allOf(results);
+    }
+
+    private CompletableFuture<Void> submit(Sink s, NFCTapData data) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (s.executor == null) {
+            run(s, data);
+            result.complete(null);
+            return result;
+        }
+        try {
+            s.executor.execute(() -> {
+                // Whoever is first, the sink or the watchdog, counts the outcome before completing,
+                // so that it is in the counters by the time anyone waiting on the tap looks
+                AtomicBoolean settled = new AtomicBoolean();
+                // Time limit starts when the sink gets to the tap
+                if (!s.timeout.isZero()) {
+                    ScheduledFuture<?> timer = watchdog.schedule(() -> {
+                        // Not interrupted, as that would close the channels of I/O sinks for good
+                        if (settled.compareAndSet(false, true)) {
+                            s.timedOut.increment();
+                            log.warn("Sink {} did not finish with a tap in {}", s.name, s.timeout);
+                            result.complete(null);
+                        }
+                    }, s.timeout.toNanos(), TimeUnit.NANOSECONDS);
+                    result.whenComplete((r, e) -> timer.cancel(false));
+                }
+                run(s, data);
+                settled.set(true);
+                result.complete(null);
+            });
+        } catch (RejectedExecutionException e) {
+            s.dropped.increment();
+            log.warn("Sink {} is falling behind, dropped a tap", s.name);
+            result.complete(null);
+        }
+        return result;
+    }
+
+    private static void run(Sink s, NFCTapData data) {
+        long start = System.nanoTime();
+        try {
+            s.processor.onNFCTap(data);
+            s.processed.increment();
+        } catch (RuntimeException e) {
+            s.failed.increment();
+            log.error("Sink {} failed: {}", s.name, e.getMessage(), e);
+        } finally {
+            s.latency.record(System.nanoTime() - start);
+        }
+    }
+
+    // Lets sinks finish with queued taps, sharing the time
+    public void close(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Sink s : sinks)
+            if (s.executor != null)
+                s.executor.shutdown();
+        try {
+            for (Sink s : sinks) {
+                if (s.executor != null && !s.executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+                    log.warn("Sink {} still busy, {} taps left", s.name, s.executor.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Sink s : sinks)
+            if (s.executor != null)
+                s.executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    @Override
+    public void close() {
+        close(Duration.ZERO);
+    }
+}
@@ -1,5 +1,6 @@
 package pro.javacard.nfc4pc;
 
+// Plugins implement this with a public no-argument constructor and are found with ServiceLoader
 public interface TapProcessor {
 
     void onNFCTap(NFCTapData data);
@@ -0,0 +1,136 @@
+package pro.javacard.nfc4pc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Streams taps to local subscribers at /taps as Server-Sent Events. Every subscriber has a bounded
+// buffer of its own: publishing never blocks, a subscriber that falls behind loses its oldest taps.
+public class TapStream implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(TapStream.class);
+
+    static final int BUFFER = 256;
+    static final long KEEPALIVE = 15; // seconds
+
+    // Events waiting for one subscriber
+    static final class Subscriber {
+        final BlockingQueue<byte[]> events;
+        final LongAdder dropped = new LongAdder();
+
+        Subscriber(int buffer) {
+            events = new ArrayBlockingQueue<>(buffer);
+        }
+
+        void offer(byte[] event) {
+            while (!events.offer(event)) {
+                if (events.poll() != null)
+                    dropped.increment();
+            }
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int buffer;
+    final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong id = new AtomicLong();
+    private final WebHookEncoder encoder = new WebHookEncoder(WebHookEncoder.Format.JSON);
+    private volatile boolean closed;
+
+    public TapStream(InetSocketAddress address, int buffer) throws IOException {
+        this.buffer = buffer;
+        server = HttpServer.create(address, 0);
+        server.createContext("/taps", this::handle);
+        // A thread per subscriber, writing to its connection
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "Tap stream");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+        log.info("Streaming taps at http://{}:{}/taps", address.getHostString(), server.getAddress().getPort());
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    // Encodes the tap once for all subscribers
+    public void publish(Map<String, String> payload) {
+        if (subscribers.isEmpty())
+            return;
+        WebHookEncoder.Buffer b = encoder.acquire();
+        try {
+            b.writeBytes(("id: " + id.incrementAndGet() + "\nevent: tap\ndata: ").getBytes(StandardCharsets.UTF_8));
+            WebHookEncoder.json(b, payload);
+            b.write('\n');
+            b.write('\n');
+            byte[] event = b.toByteArray();
+            for (Subscriber s : subscribers)
+                s.offer(event);
+        } finally {
+            encoder.release(b);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            Subscriber s = new Subscriber(buffer);
+            subscribers.add(s);
+            log.debug("Tap stream subscriber from {}", exchange.getRemoteAddress());
+            try (OutputStream out = exchange.getResponseBody()) {
+                // Let the client know it is connected
+                out.write(": nfc4pc\n\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                while (!closed) {
+                    byte[] event = s.events.poll(KEEPALIVE, TimeUnit.SECONDS);
+                    // Comment lines keep proxies and browsers from timing out
+                    out.write(event == null ? ": keepalive\n\n".getBytes(StandardCharsets.UTF_8) : event);
+                    // Write everything that is waiting before flushing
+                    while ((event = s.events.poll()) != null)
+                        out.write(event);
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                log.debug("Tap stream subscriber from {} gone: {}", exchange.getRemoteAddress(), e.getMessage());
+            } finally {
+                subscribers.remove(s);
+                if (s.dropped.sum() > 0)
+                    log.warn("Tap stream subscriber from {} missed {} taps", exchange.getRemoteAddress(), s.dropped.sum());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,49 @@
+package pro.javacard.nfc4pc;
+
+// Nanoseconds spent in each stage of a tap, zero for stages that were not reached.
+// Filled in by the reader thread. Time spent by the outputs is in the sink histograms of TapPipeline.
+public final class TapTimings {
+    public enum Stage {
+        CONNECT, EXCLUSIVE, UID, TYPE2, TYPE4, PARSE, DISPATCH;
+
+        final String label = name().toLowerCase();
+    }
+
+    static final Stage[] STAGES = Stage.values();
+
+    private final long[] nanos = new long[STAGES.length];
+
+    public void record(Stage stage, long n) {
+        nanos[stage.ordinal()] += n;
+    }
+
+    // Ends a stage that started at start, returns the time for the start of the next one
+    public long lap(Stage stage, long start) {
+        long now = System.nanoTime();
+        record(stage, now - start);
+        return now;
+    }
+
+    public TapTimings copy() {
+        TapTimings copy = new TapTimings();
+        System.arraycopy(nanos, 0, copy.nanos, 0, nanos.length);
+        return copy;
+    }
+
+    public long nanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("TapTimings[");
+        for (Stage s : STAGES) {
+            if (nanos[s.ordinal()] == 0)
+                continue;
+            if (sb.length() > 11)
+                sb.append(", ");
+            sb.append(s.label).append('=').append(nanos[s.ordinal()] / 1000).append("us");
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,150 @@
+package pro.javacard.nfc4pc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+// Writes taps as JSON, an object per line, for other programs to consume. Output is buffered and
+// flushed after every tap, so that the other end sees taps as they happen.
+// After a failed write the target is opened again on the next tap, and after every failed attempt
+// the wait before the next one doubles, up to a limit. Taps in between are dropped.
+public class TapWriter implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(TapWriter.class);
+
+    static final String UNIX = "unix:";
+    static final String STDOUT = "stdout";
+    static final Duration BACKOFF_MIN = Duration.ofSeconds(1);
+    static final Duration BACKOFF_MAX = Duration.ofSeconds(30);
+
+    interface Opener {
+        OutputStream open() throws IOException;
+    }
+
+    private final Opener opener; // null if the target can not be opened again
+    private final String target;
+    private final WebHookEncoder.Buffer line = new WebHookEncoder.Buffer();
+    private OutputStream out; // null while the target is away
+    private long backoff; // nanoseconds to wait after the next failed attempt
+    private long retry; // System.nanoTime() of the next attempt
+    private boolean failed;
+
+    TapWriter(OutputStream out, String target) {
+        this(out, target, null);
+    }
+
+    TapWriter(Opener opener, String target) throws IOException {
+        this(opener.open(), target, opener);
+    }
+
+    private TapWriter(OutputStream out, String target, Opener opener) {
+        this.out = new BufferedOutputStream(out, 8192);
+        this.target = target;
+        this.opener = opener;
+        this.backoff = BACKOFF_MIN.toNanos();
+    }
+
+    // Standard output when no target, "unix:<path>" for a listening Unix domain socket,
+    // otherwise a file or named pipe, appended to. Opening a named pipe waits for a reader, which
+    // holds up only the sink of the writer: the pipeline drops taps for it in the meantime.
+    public static TapWriter open(String target) throws IOException {
+        if (target == null || target.equals("-"))
+            return new TapWriter(new FileOutputStream(FileDescriptor.out), STDOUT);
+        if (target.startsWith(UNIX)) {
+            UnixDomainSocketAddress address = UnixDomainSocketAddress.of(target.substring(UNIX.length()));
+            return new TapWriter(() -> Channels.newOutputStream(SocketChannel.open(address)), target);
+        }
+        Path path = Path.of(target);
+        return new TapWriter(() -> Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), target);
+    }
+
+    boolean stdout() {
+        return target.equals(STDOUT);
+    }
+
+    // Fields of the webhook payload, with stage timings in nanoseconds
+    public synchronized void write(NFCTapData data) {
+        line.reset();
+        line.write('{');
+        WebHookEncoder.fields(line, NFC4PC.payload(data));
+        line.writeBytes(",\"timings\":{".getBytes(StandardCharsets.US_ASCII));
+        boolean first = true;
+        for (TapTimings.Stage s : TapTimings.STAGES) {
+            long nanos = data.timings().nanos(s);
+            if (nanos == 0)
+                continue;
+            if (!first)
+                line.write(',');
+            first = false;
+            line.writeBytes(('"' + s.label + "\":" + nanos).getBytes(StandardCharsets.US_ASCII));
+        }
+        line.writeBytes("}}\n".getBytes(StandardCharsets.US_ASCII));
+        if (out == null && !reopen())
+            return;
+        try {
+            out.write(line.array(), 0, line.size());
+            out.flush();
+            if (failed)
+                log.info("Writing taps to {} again", target);
+            failed = false;
+        } catch (IOException e) {
+            // Once per outage
+            if (!failed)
+                log.warn("Could not write tap to {}: {}", target, e.getMessage());
+            failed = true;
+            if (opener != null) {
+                // Buffered bytes belong to the old connection, a new one starts from a whole line
+                close(out);
+                out = null;
+                retry = System.nanoTime();
+            }
+        }
+    }
+
+    private boolean reopen() {
+        long now = System.nanoTime();
+        if (now - retry < 0)
+            return false;
+        try {
+            out = new BufferedOutputStream(opener.open(), 8192);
+            backoff = BACKOFF_MIN.toNanos();
+            return true;
+        } catch (IOException e) {
+            log.debug("Could not open {} again: {}", target, e.getMessage());
+            retry = now + backoff;
+            backoff = Math.min(backoff * 2, BACKOFF_MAX.toNanos());
+            return false;
+        }
+    }
+
+    private void close(OutputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.debug("Could not close {}: {}", target, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("Could not close {}: {}", target, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package pro.javacard.nfc4pc;
+
+// NFC UID (4, 7 or 10 bytes) packed into primitives. Hex form is made once, when first asked.
+public final class UID {
+    private final long head; // first 8 bytes, big endian, zero padded
+    private final short tail; // bytes 9 and 10 of a 10 byte UID
+    private final byte length;
+    private String hex;
+
+    private UID(long head, short tail, int length) {
+        this.head = head;
+        this.tail = tail;
+        this.length = (byte) length;
+    }
+
+    public static UID of(byte[] uid) {
+        return of(uid, 0, uid.length);
+    }
+
+    public static UID of(byte[] b, int offset, int length) {
+        switch (length) {
+            case 4, 7, 10 -> {
+            }
+            default -> throw new IllegalArgumentException("Invalid UID length: " + length);
+        }
+        long head = 0;
+        for (int i = 0; i < 8; i++)
+            head = (head << 8) | (i < length ? b[offset + i] & 0xFF : 0);
+        short tail = length == 10 ? (short) (((b[offset + 8] & 0xFF) << 8) | (b[offset + 9] & 0xFF)) : 0;
+        return new UID(head, tail, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    long head() {
+        return head;
+    }
+
+    short tail() {
+        return tail;
+    }
+
+    public byte[] toByteArray() {
+        byte[] r = new byte[length];
+        for (int i = 0; i < length; i++)
+            r[i] = (byte) (i < 8 ? head >>> (56 - i * 8) : tail >>> (8 - (i - 8) * 8));
+        return r;
+    }
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Lowercase hex, as used in URL-s and webhooks
+    @Override
+    public String toString() {
+        String s = hex;
+        if (s == null) {
+            char[] c = new char[length * 2];
+            for (int i = 0; i < length; i++) {
+                int v = (i < 8 ? (int) (head >>> (56 - i * 8)) : tail >>> (8 - (i - 8) * 8)) & 0xFF;
+                c[i * 2] = HEX[v >>> 4];
+                c[i * 2 + 1] = HEX[v & 0x0F];
+            }
+            // Benign race: all threads compute the same string
+            hex = s = new String(c);
+        }
+        return s;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof UID u && u.head == head && u.tail == tail && u.length == length;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(head) * 31 + tail * 7 + length;
+    }
+}
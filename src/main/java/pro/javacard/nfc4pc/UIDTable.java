@@ -0,0 +1,237 @@
+package pro.javacard.nfc4pc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// UID to URL table, for resolving taps without a URL offline. Loaded from a text file with a UID
+// in hex and a URL per line, into an open addressing hash table in a memory-mapped index file:
+// no objects per entry, one probe sequence per lookup. Reloaded when the file changes.
+public class UIDTable implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(UIDTable.class);
+
+    // Slot: UID head (8), tail (2), length (1), padding (1), URL offset (4)
+    static final int SLOT = 16;
+    static final int MAX_ENTRIES = 1 << 26;
+
+    // Loaded table, replaced as a whole on reload
+    record Index(ByteBuffer buffer, int mask, int count) {
+        String lookup(long head, short tail, int length) {
+            int slot = hash(head, tail) & mask;
+            while (true) {
+                int pos = slot * SLOT;
+                int len = buffer.get(pos + 10);
+                if (len == 0)
+                    return null;
+                if (len == length && buffer.getLong(pos) == head && buffer.getShort(pos + 8) == tail) {
+                    int url = buffer.getInt(pos + 12);
+                    byte[] bytes = new byte[buffer.getShort(url) & 0xFFFF];
+                    buffer.get(url + 2, bytes);
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    private final Path file;
+    private volatile Index index;
+    private FileTime loaded;
+    private ScheduledExecutorService watcher;
+
+    public UIDTable(Path file) throws IOException {
+        this.file = file;
+        this.loaded = Files.getLastModifiedTime(file);
+        this.index = load(file);
+    }
+
+    // Checks the file for changes every interval
+    public UIDTable watch(long seconds) {
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "UID table watcher");
+            t.setDaemon(true);
+            return t;
+        });
+        watcher.scheduleWithFixedDelay(this::reload, seconds, seconds, TimeUnit.SECONDS);
+        return this;
+    }
+
+    public String lookup(UID uid) {
+        return index.lookup(uid.head(), uid.tail(), uid.length());
+    }
+
+    public int size() {
+        return index.count;
+    }
+
+    // Swaps in a new index if the file has changed. Lookups in progress finish with the old one.
+    void reload() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            if (modified.equals(loaded))
+                return;
+            index = load(file);
+            loaded = modified;
+            log.info("Reloaded {} UID-s from {}", index.count, file);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not reload {}, keeping previous table: {}", file, e.getMessage());
+        }
+    }
+
+    static int hash(long head, short tail) {
+        long h = (head ^ tail) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    static Index load(Path file) throws IOException {
+        byte[] text = Files.readAllBytes(file);
+        // First pass for sizes
+        int count = 0;
+        long strings = 0;
+        for (Line line = new Line(text, true); line.next(); ) {
+            count++;
+            strings += 2 + line.urlLength;
+        }
+        if (count > MAX_ENTRIES)
+            throw new IOException("Too many entries in UID table: " + count);
+        int slots = Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+        long size = (long) slots * SLOT + strings;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("UID table too large: " + file);
+
+        Path tmp = Files.createTempFile("nfc4pc-uid", ".idx");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            // Mapping stays valid after the file is gone, where the platform allows deleting it
+            try {
+                Files.delete(tmp);
+            } catch (IOException e) {
+                tmp.toFile().deleteOnExit();
+            }
+        }
+
+        int mask = slots - 1;
+        int url = slots * SLOT;
+        int entries = 0;
+        for (Line line = new Line(text, false); line.next(); ) {
+            int slot = hash(line.head, line.tail) & mask;
+            while (true) {
+                int pos = slot * SLOT;
+                int len = buffer.get(pos + 10);
+                if (len == 0) {
+                    buffer.putLong(pos, line.head).putShort(pos + 8, line.tail).put(pos + 10, (byte) line.length).putInt(pos + 12, url);
+                    entries++;
+                    break;
+                }
+                // Later line wins
+                if (len == line.length && buffer.getLong(pos) == line.head && buffer.getShort(pos + 8) == line.tail) {
+                    buffer.putInt(pos + 12, url);
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            buffer.putShort(url, (short) line.urlLength);
+            buffer.put(url + 2, text, line.urlOffset, line.urlLength);
+            url += 2 + line.urlLength;
+        }
+        log.info("Loaded {} UID-s from {}", entries, file);
+        return new Index(buffer, mask, entries);
+    }
+
+    // Parses "<uid> <url>" lines in place. Separator can be whitespace, comma, semicolon or equals sign.
+    // Empty lines and lines starting with # are skipped, as are lines with an invalid UID.
+    static final class Line {
+        private final byte[] text;
+        private final boolean warn;
+        private int pos;
+        long head;
+        short tail;
+        int length;
+        int urlOffset;
+        int urlLength;
+
+        Line(byte[] text, boolean warn) {
+            this.text = text;
+            this.warn = warn;
+        }
+
+        boolean next() {
+            while (pos < text.length) {
+                int start = pos;
+                int end = start;
+                while (end < text.length && text[end] != '\n')
+                    end++;
+                pos = end + 1;
+                if (parse(start, end))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean parse(int start, int end) {
+            while (start < end && blank(text[start]))
+                start++;
+            while (end > start && blank(text[end - 1]))
+                end--;
+            if (start == end || text[start] == '#')
+                return false;
+            int i = start;
+            long h = 0;
+            int t = 0;
+            int n = 0;
+            while (i < end && Character.digit(text[i], 16) >= 0) {
+                if (i + 1 >= end || Character.digit(text[i + 1], 16) < 0)
+                    return invalid(start, end);
+                int v = (Character.digit(text[i], 16) << 4) | Character.digit(text[i + 1], 16);
+                if (n < 8)
+                    h |= (long) v << (56 - n * 8);
+                else if (n < 10)
+                    t |= v << (8 - (n - 8) * 8);
+                n++;
+                i += 2;
+            }
+            if (n != 4 && n != 7 && n != 10)
+                return invalid(start, end);
+            while (i < end && (blank(text[i]) || text[i] == ',' || text[i] == ';' || text[i] == '='))
+                i++;
+            if (i == end || end - i > 0xFFFF)
+                return invalid(start, end);
+            head = h;
+            tail = (short) t;
+            length = n;
+            urlOffset = i;
+            urlLength = end - i;
+            return true;
+        }
+
+        private boolean invalid(int start, int end) {
+            if (warn)
+                log.warn("Ignoring invalid line in UID table: {}", new String(text, start, end - start, StandardCharsets.UTF_8));
+            return false;
+        }
+
+        private static boolean blank(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watcher != null)
+            watcher.shutdownNow();
+    }
+}
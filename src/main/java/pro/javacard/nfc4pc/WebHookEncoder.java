@@ -0,0 +1,301 @@
+package pro.javacard.nfc4pc;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Writes webhook bodies as UTF-8 straight into byte buffers, which are handed to the request as they are
+// and recycled once the request is done. Values are strings in all encodings.
+public final class WebHookEncoder {
+    public enum Format {
+        FORM("application/x-www-form-urlencoded"),
+        JSON("application/json"),
+        CBOR("application/cbor");
+
+        final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        static Format parse(String s) {
+            return valueOf(s.toUpperCase());
+        }
+    }
+
+    // Growable buffer with access to its backing array. Not synchronized, as a buffer is written by one thread
+    public static final class Buffer {
+        private byte[] buf = new byte[256];
+        private int count;
+        // Set when a request gave up on the buffer while the client may still be reading it
+        private volatile boolean abandoned;
+
+        public void write(int b) {
+            if (count == buf.length)
+                grow(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buf.length)
+                grow(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        public void writeBytes(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        private void grow(int min) {
+            buf = Arrays.copyOf(buf, Math.max(min, buf.length * 2));
+        }
+
+        public byte[] array() {
+            return buf;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public void reset() {
+            count = 0;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        public String toString(Charset charset) {
+            return new String(buf, 0, count, charset);
+        }
+
+        // Not recycled, left to the garbage collector
+        void abandon() {
+            abandoned = true;
+        }
+    }
+
+    static final int POOL = 16;
+    static final int MAX_RECYCLED = 64 * 1024;
+
+    final Format format;
+    private final BlockingQueue<Buffer> free = new ArrayBlockingQueue<>(POOL);
+
+    public WebHookEncoder(Format format) {
+        this.format = format;
+    }
+
+    public Buffer acquire() {
+        Buffer b = free.poll();
+        return b == null ? new Buffer() : b;
+    }
+
+    public void release(Buffer b) {
+        if (!b.abandoned && b.array().length <= MAX_RECYCLED) {
+            b.reset();
+            free.offer(b);
+        }
+    }
+
+    public Buffer encode(Map<String, String> payload) {
+        Buffer b = acquire();
+        write(b, payload);
+        return b;
+    }
+
+    void write(Buffer out, Map<String, String> payload) {
+        switch (format) {
+            case FORM -> form(out, payload);
+            case JSON -> json(out, payload);
+            case CBOR -> cbor(out, payload);
+        }
+    }
+
+    static void form(Buffer out, Map<String, String> payload) {
+        boolean first = true;
+        for (Map.Entry<String, String> e : payload.entrySet()) {
+            if (!first)
+                out.write('&');
+            first = false;
+            utf8(out, e.getKey(), FORM_ESCAPE);
+            out.write('=');
+            utf8(out, e.getValue(), FORM_ESCAPE);
+        }
+    }
+
+    static void json(Buffer out, Map<String, String> payload) {
+        out.write('{');
+        fields(out, payload);
+        out.write('}');
+    }
+
+    // Members of an object, without the braces, so that more can be added
+    static void fields(Buffer out, Map<String, String> payload) {
+        boolean first = true;
+        for (Map.Entry<String, String> e : payload.entrySet()) {
+            if (!first)
+                out.write(',');
+            first = false;
+            out.write('"');
+            utf8(out, e.getKey(), JSON_ESCAPE);
+            out.write('"');
+            out.write(':');
+            out.write('"');
+            utf8(out, e.getValue(), JSON_ESCAPE);
+            out.write('"');
+        }
+    }
+
+    // Map of text strings, with definite lengths
+    static void cbor(Buffer out, Map<String, String> payload) {
+        head(out, 5, payload.size());
+        for (Map.Entry<String, String> e : payload.entrySet()) {
+            head(out, 3, utf8Length(e.getKey()));
+            utf8(out, e.getKey(), RAW);
+            head(out, 3, utf8Length(e.getValue()));
+            utf8(out, e.getValue(), RAW);
+        }
+    }
+
+    // Batches: JSON array, JSON object per line or CBOR array
+    static void jsonArray(Buffer out, List<Map<String, String>> items) {
+        out.write('[');
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0)
+                out.write(',');
+            json(out, items.get(i));
+        }
+        out.write(']');
+    }
+
+    static void ndjson(Buffer out, List<Map<String, String>> items) {
+        for (Map<String, String> item : items) {
+            json(out, item);
+            out.write('\n');
+        }
+    }
+
+    static void cborArray(Buffer out, List<Map<String, String>> items) {
+        head(out, 4, items.size());
+        for (Map<String, String> item : items)
+            cbor(out, item);
+    }
+
+    // CBOR initial byte and argument
+    static void head(Buffer out, int major, long value) {
+        int mt = major << 5;
+        if (value < 24) {
+            out.write(mt | (int) value);
+        } else if (value <= 0xFF) {
+            out.write(mt | 24);
+            out.write((int) value);
+        } else if (value <= 0xFFFF) {
+            out.write(mt | 25);
+            out.write((int) (value >> 8));
+            out.write((int) value);
+        } else {
+            out.write(mt | 26);
+            for (int shift = 24; shift >= 0; shift -= 8)
+                out.write((int) (value >> shift));
+        }
+    }
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    // How a single byte of UTF-8 is written
+    interface Escape {
+        void write(Buffer out, int b);
+    }
+
+    static final Escape RAW = Buffer::write;
+
+    // As URLEncoder: unreserved characters as is, space as +, everything else percent encoded
+    static final Escape FORM_ESCAPE = (out, b) -> {
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '.' || b == '-' || b == '*' || b == '_') {
+            out.write(b);
+        } else if (b == ' ') {
+            out.write('+');
+        } else {
+            out.write('%');
+            out.write(HEX[b >> 4]);
+            out.write(HEX[b & 0x0F]);
+        }
+    };
+
+    static final Escape JSON_ESCAPE = (out, b) -> {
+        switch (b) {
+            case '"', '\\' -> {
+                out.write('\\');
+                out.write(b);
+            }
+            case '\n' -> escape(out, 'n');
+            case '\r' -> escape(out, 'r');
+            case '\t' -> escape(out, 't');
+            default -> {
+                if (b < 0x20) {
+                    for (byte c : new byte[]{'\\', 'u', '0', '0', HEX[b >> 4], HEX[b & 0x0F]})
+                        out.write(c);
+                } else {
+                    out.write(b);
+                }
+            }
+        }
+    };
+
+    private static void escape(Buffer out, char c) {
+        out.write('\\');
+        out.write(c);
+    }
+
+    static void utf8(Buffer out, String s, Escape escape) {
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                escape.write(out, c);
+            } else if (c < 0x800) {
+                escape.write(out, 0xC0 | (c >> 6));
+                escape.write(out, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint((char) c, s.charAt(++i));
+                escape.write(out, 0xF0 | (cp >> 18));
+                escape.write(out, 0x80 | ((cp >> 12) & 0x3F));
+                escape.write(out, 0x80 | ((cp >> 6) & 0x3F));
+                escape.write(out, 0x80 | (cp & 0x3F));
+            } else {
+                // Lone surrogates become '?', as with String.getBytes()
+                if (Character.isSurrogate((char) c))
+                    c = '?';
+                if (c < 0x80) {
+                    escape.write(out, c);
+                } else {
+                    escape.write(out, 0xE0 | (c >> 12));
+                    escape.write(out, 0x80 | ((c >> 6) & 0x3F));
+                    escape.write(out, 0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    static int utf8Length(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                len += 1;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else {
+                len += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return len;
+    }
+}
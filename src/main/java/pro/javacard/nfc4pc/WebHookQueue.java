@@ -0,0 +1,462 @@
+package pro.javacard.nfc4pc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Delivers webhooks off the reader thread: a bounded queue in front of a limited number of requests in flight.
+public class WebHookQueue {
+    static final Logger log = LoggerFactory.getLogger(WebHookQueue.class);
+
+    // What to do with a tap when the queue is full
+    public enum Overflow {
+        BLOCK, // wait for space, holding up the reader thread
+        DROP_OLDEST, // forget the oldest queued tap
+        SPILL; // append the tap to the spill file
+
+        static Overflow parse(String s) {
+            return valueOf(s.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    // Body of a batch of taps
+    public enum Batch {
+        JSON("application/json"), // JSON array of objects
+        NDJSON("application/x-ndjson"), // JSON object per line
+        CBOR("application/cbor"); // CBOR array of maps
+
+        final String contentType;
+
+        Batch(String contentType) {
+            this.contentType = contentType;
+        }
+
+        static Batch parse(String s) {
+            return valueOf(s.toUpperCase());
+        }
+
+        void encode(WebHookEncoder.Buffer out, List<Pending> items) {
+            List<Map<String, String>> payloads = new ArrayList<>(items.size());
+            for (Pending p : items)
+                payloads.add(p.payload);
+            switch (this) {
+                case JSON -> WebHookEncoder.jsonArray(out, payloads);
+                case NDJSON -> WebHookEncoder.ndjson(out, payloads);
+                case CBOR -> WebHookEncoder.cborArray(out, payloads);
+            }
+        }
+    }
+
+    record Pending(Map<String, String> payload, CompletableFuture<Boolean> result, long queued) {
+    }
+
+    private final int target;
+    private final URI url;
+    private final String authorization;
+    private final Overflow overflow;
+    private final Path spill;
+    private WebHookEncoder encoder = new WebHookEncoder(WebHookEncoder.Format.FORM);
+
+    private final BlockingDeque<Pending> queue;
+    private final Semaphore inflight;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder spilled = new LongAdder();
+    final LongAdder spooled = new LongAdder();
+    final LongAdder resent = new LongAdder();
+    final LongAdder retried = new LongAdder();
+    // Time from queueing to delivery
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    static final Duration BACKOFF_BASE = Duration.ofMillis(250);
+    static final Duration BACKOFF_MAX = Duration.ofSeconds(10);
+    static final int BREAKER_THRESHOLD = 5;
+    static final Duration BREAKER_COOLDOWN = Duration.ofSeconds(30);
+
+    // Failed requests are retried with backoff. While the breaker is open, taps wait in the spool if there
+    // is one, otherwise in the queue
+    private int retries;
+    final CircuitBreaker breaker;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Webhook timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Batching: up to batchSize taps per request, waiting at most linger for a batch to fill
+    private int batchSize = 1;
+    private long linger;
+    private Batch batch;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean flushing;
+
+    // Failed webhooks go to the spool, which is resent in order while the endpoint accepts them
+    private WebHookSpool spool;
+    private ScheduledExecutorService resender;
+    private final AtomicBoolean resending = new AtomicBoolean();
+
+    public WebHookQueue(URI url, String authorization, int inflight, int depth, Overflow overflow, Path spill) {
+        this(0, url, authorization, inflight, depth, overflow, spill);
+    }
+
+    // Target is the index of the webhook, which names it in logs, metrics and events instead of the full URL
+    public WebHookQueue(int target, URI url, String authorization, int inflight, int depth, Overflow overflow, Path spill) {
+        if (overflow == Overflow.SPILL && spill == null)
+            throw new IllegalArgumentException("Spill overflow needs a spill file");
+        this.target = target;
+        this.url = url;
+        this.authorization = authorization;
+        this.overflow = overflow;
+        this.spill = spill;
+        this.queue = new LinkedBlockingDeque<>(depth);
+        this.inflight = new Semaphore(inflight);
+        this.breaker = new CircuitBreaker(WebHooks.label(target, url), BREAKER_THRESHOLD, BREAKER_COOLDOWN);
+    }
+
+    public WebHookQueue encoded(WebHookEncoder.Format format) {
+        this.encoder = new WebHookEncoder(format);
+        return this;
+    }
+
+    public WebHookQueue retrying(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    public WebHookQueue batched(int size, Duration linger, Batch batch) {
+        this.batchSize = size;
+        this.linger = linger.toNanos();
+        this.batch = batch;
+        return this;
+    }
+
+    public WebHookQueue spooled(WebHookSpool spool, Duration interval) {
+        this.spool = spool;
+        this.resender = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Webhook spool");
+            t.setDaemon(true);
+            return t;
+        });
+        resender.scheduleWithFixedDelay(this::resend, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    // Queues the payload for delivery. Result is true once delivered, false if failed or dropped.
+    public CompletableFuture<Boolean> submit(Map<String, String> payload) {
+        Pending p = new Pending(payload, new CompletableFuture<>(), System.nanoTime());
+        outstanding.incrementAndGet();
+        p.result.whenComplete((r, e) -> done());
+        // Not queued for an endpoint that is down, where it would only take up space
+        if (spool != null && breaker.state() == CircuitBreaker.State.OPEN) {
+            fail(p);
+            return p.result;
+        }
+        switch (overflow) {
+            case BLOCK -> {
+                try {
+                    queue.putLast(p);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    p.result.complete(false);
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offerLast(p)) {
+                    Pending old = queue.pollFirst();
+                    if (old != null) {
+                        log.warn("Webhook queue full, dropping oldest tap");
+                        dropped.increment();
+                        old.result.complete(false);
+                    }
+                }
+            }
+            case SPILL -> {
+                if (!queue.offerLast(p)) {
+                    spill(p.payload);
+                    p.result.complete(false);
+                }
+            }
+        }
+        pump();
+        return p.result;
+    }
+
+    // A batch is ready when full, when the oldest tap has waited long enough or when shutting down
+    private boolean ready() {
+        Pending oldest = queue.peekFirst();
+        if (oldest == null)
+            return false;
+        return batchSize == 1 || flushing || queue.size() >= batchSize || System.nanoTime() - oldest.queued >= linger;
+    }
+
+    // Starts requests while there are free slots and queued taps
+    private void pump() {
+        while (ready() && inflight.tryAcquire()) {
+            if (!breaker.allow()) {
+                inflight.release();
+                // Taps that were queued before the breaker opened go to the spool, too
+                if (spool != null) {
+                    List<Pending> held = new ArrayList<>();
+                    queue.drainTo(held);
+                    held.forEach(this::fail);
+                }
+                break;
+            }
+            List<Pending> items;
+            if (batchSize == 1) {
+                Pending p = queue.pollFirst();
+                items = p == null ? List.of() : List.of(p);
+            } else {
+                items = new ArrayList<>(batchSize);
+                queue.drainTo(items, batchSize);
+            }
+            if (items.isEmpty()) {
+                inflight.release();
+                continue;
+            }
+            start(items);
+        }
+        // Come back when the oldest tap has lingered enough or the breaker lets a trial through
+        Pending oldest = queue.peekFirst();
+        boolean open = breaker.state() == CircuitBreaker.State.OPEN;
+        if ((batchSize > 1 || open) && oldest != null && scheduled.compareAndSet(false, true)) {
+            long wait = open ? breaker.retryIn().toNanos() : Math.max(0, oldest.queued + linger - System.nanoTime());
+            timer.schedule(() -> {
+                scheduled.set(false);
+                pump();
+            }, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Encodes and sends the taps. If that fails right away, the slot, the buffer and the taps are given back
+    private void start(List<Pending> items) {
+        WebHookEncoder.Buffer body = null;
+        try {
+            String contentType;
+            if (batchSize == 1) {
+                body = encoder.encode(items.get(0).payload);
+                contentType = encoder.format.contentType;
+            } else {
+                log.debug("Sending batch of {} taps", items.size());
+                body = encoder.acquire();
+                batch.encode(body, items);
+                contentType = batch.contentType;
+            }
+            WebHookEncoder.Buffer sent = body;
+            send(() -> WebHooks.postAsync(target, url, sent, contentType, authorization)).thenAccept(ok -> {
+                encoder.release(sent);
+                complete(items, ok);
+            });
+        } catch (RuntimeException e) {
+            log.error("Could not send webhook: " + e.getMessage(), e);
+            if (body != null)
+                encoder.release(body);
+            // Counted, so that the trial of a half open breaker is not left hanging
+            breaker.failure();
+            complete(items, false);
+        }
+    }
+
+    // Sends with retries, giving up early when the breaker opens. The breaker hears of the outcome, not of every retry
+    private CompletableFuture<Boolean> send(Supplier<CompletableFuture<Boolean>> request) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        attempt(request, 0, result);
+        return result;
+    }
+
+    private void attempt(Supplier<CompletableFuture<Boolean>> request, int n, CompletableFuture<Boolean> result) {
+        CompletableFuture<Boolean> sent;
+        try {
+            sent = request.get();
+        } catch (RuntimeException e) {
+            // Request that can not be built, like a bad header, fails the same way every time
+            log.error("Could not send webhook: " + e.getMessage(), e);
+            breaker.failure();
+            result.complete(false);
+            return;
+        }
+        sent.thenAccept(ok -> {
+            if (ok) {
+                breaker.success();
+                result.complete(true);
+                return;
+            }
+            // Once per tap or batch, so that the threshold counts taps and not attempts
+            if (n >= retries) {
+                breaker.failure();
+                result.complete(false);
+                return;
+            }
+            // Opened by failures of other taps
+            if (breaker.state() == CircuitBreaker.State.OPEN) {
+                result.complete(false);
+                return;
+            }
+            retried.increment();
+            timer.schedule(() -> attempt(request, n + 1, result), backoff(n), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    // Exponential with full jitter, in milliseconds
+    static long backoff(int attempt) {
+        long ceiling = Math.min(BACKOFF_MAX.toMillis(), BACKOFF_BASE.toMillis() << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void complete(List<Pending> items, boolean ok) {
+        inflight.release();
+        if (ok) {
+            long now = System.nanoTime();
+            for (Pending p : items) {
+                delivered.increment();
+                latency.record(now - p.queued);
+                p.result.complete(true);
+            }
+        } else if (spool == null && breaker.state() == CircuitBreaker.State.OPEN) {
+            // Hold on to the taps until the endpoint recovers
+            for (int i = items.size() - 1; i >= 0; i--) {
+                if (!queue.offerFirst(items.get(i)))
+                    fail(items.get(i));
+            }
+        } else {
+            items.forEach(this::fail);
+        }
+        pump();
+    }
+
+    // Keeps the failed tap in the spool before reporting it, so that drain() covers spooling
+    private void fail(Pending p) {
+        failed.increment();
+        if (spool != null) {
+            WebHookEncoder.Buffer body = encoder.encode(p.payload);
+            try {
+                spool.append(body.array(), 0, body.size());
+                spooled.increment();
+            } catch (IOException e) {
+                log.error("Could not spool webhook: " + e.getMessage(), e);
+            } finally {
+                encoder.release(body);
+            }
+        }
+        p.result.complete(false);
+    }
+
+    // Sends spooled webhooks one by one, oldest first, until one fails
+    void resend() {
+        if (!resending.compareAndSet(false, true))
+            return;
+        try {
+            Optional<WebHookSpool.Record> next;
+            while ((next = spool.peek()).isPresent() && breaker.allow()) {
+                byte[] payload = next.get().payload();
+                if (!WebHooks.postAsync(target, url, payload, payload.length, encoder.format.contentType, authorization).join()) {
+                    breaker.failure();
+                    break;
+                }
+                breaker.success();
+                spool.ack(next.get());
+                resent.increment();
+            }
+        } finally {
+            resending.set(false);
+        }
+    }
+
+    private void spill(Map<String, String> payload) {
+        log.warn("Webhook queue full, spilling tap to {}", spill);
+        spilled.increment();
+        synchronized (this) {
+            try {
+                Files.writeString(spill, WebHooks.formdata(payload) + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                log.error("Could not spill webhook to " + spill + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void done() {
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (outstanding) {
+                outstanding.notifyAll();
+            }
+        }
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    public URI url() {
+        return url;
+    }
+
+    // Webhooks waiting in the spool
+    public int spoolSize() {
+        return spool == null ? 0 : spool.size();
+    }
+
+    long spoolDropped() {
+        return spool == null ? 0 : spool.dropped.get();
+    }
+
+    // Waits for queued and in-flight webhooks. Returns false if some remained after timeout
+    public boolean drain(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        // Send incomplete batches right away
+        flushing = true;
+        pump();
+        synchronized (outstanding) {
+            while (outstanding.get() > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    log.warn("{} webhooks not delivered", outstanding.get());
+                    // Taps held for a failed endpoint are kept in spool, if there is one
+                    List<Pending> held = new ArrayList<>();
+                    queue.drainTo(held);
+                    held.forEach(this::fail);
+                    return false;
+                }
+                try {
+                    outstanding.wait(Math.max(1, left / 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void close() {
+        timer.shutdownNow();
+        if (resender != null)
+            resender.shutdownNow();
+        if (spool != null)
+            spool.close();
+    }
+}
@@ -0,0 +1,216 @@
+package pro.javacard.nfc4pc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Undelivered webhooks, kept on disk until the endpoint takes them. An append-only log in memory-mapped
+// segment files: each record is a 4 byte length followed by the encoded payload, and a delivered
+// record gets its length negated in place. Segments are deleted once all of their records are delivered.
+public class WebHookSpool implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(WebHookSpool.class);
+
+    static final String SUFFIX = ".spool";
+    static final int DEFAULT_SEGMENT = 1 << 20;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long cap;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private int pending;
+    final AtomicLong dropped = new AtomicLong();
+
+    // Record returned by peek(), to acknowledge once delivered
+    public record Record(long seq, int pos, byte[] payload) {
+    }
+
+    static final class Segment {
+        final long seq;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        int read; // first undelivered record
+        int write; // end of records
+
+        Segment(long seq, Path path, int size) throws IOException {
+            this.seq = seq;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        int length(int pos) {
+            return pos + 4 <= map.capacity() ? map.getInt(pos) : 0;
+        }
+
+        boolean fits(int len) {
+            return write + 4 + len <= map.capacity();
+        }
+
+        boolean delivered() {
+            return read == write;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    public WebHookSpool(Path dir, int segmentSize, long cap) throws IOException {
+        if (cap < segmentSize)
+            throw new IllegalArgumentException("Spool size must be at least one segment");
+        this.dir = Files.createDirectories(dir);
+        this.segmentSize = segmentSize;
+        this.cap = cap;
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().forEach(files::add);
+        }
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            Segment segment = new Segment(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), p, (int) Math.max(segmentSize, Files.size(p)));
+            recover(segment);
+            if (segment.delivered() && files.size() > 1) {
+                delete(segment);
+                continue;
+            }
+            segments.addLast(segment);
+        }
+        if (pending > 0)
+            log.info("{} undelivered webhooks in {}", pending, dir);
+    }
+
+    // Finds the first undelivered record and the end of records
+    private void recover(Segment segment) {
+        int pos = 0;
+        int read = -1;
+        int len;
+        while ((len = segment.length(pos)) != 0) {
+            int size = Math.abs(len);
+            if (pos + 4 + size > segment.map.capacity()) {
+                log.warn("Truncated record in {} at {}", segment.path, pos);
+                break;
+            }
+            if (len > 0) {
+                if (read < 0)
+                    read = pos;
+                pending++;
+            }
+            pos += 4 + size;
+        }
+        segment.write = pos;
+        segment.read = read < 0 ? pos : read;
+    }
+
+    // Appends and flushes a record to disk
+    public synchronized void append(byte[] payload, int offset, int length) throws IOException {
+        if (length + 4 > segmentSize)
+            throw new IOException("Webhook payload too large to spool: " + length);
+        Segment tail = segments.peekLast();
+        if (tail == null || !tail.fits(length))
+            tail = rotate();
+        int pos = tail.write;
+        tail.map.put(pos + 4, payload, offset, length);
+        // Length last, so that a torn write looks like end of log
+        tail.map.putInt(pos, length);
+        tail.map.force(pos, 4 + length);
+        tail.write = pos + 4 + length;
+        pending++;
+    }
+
+    private Segment rotate() throws IOException {
+        Segment tail = segments.peekLast();
+        long seq = tail == null ? 0 : tail.seq + 1;
+        Segment segment = new Segment(seq, dir.resolve(String.format("%016d%s", seq, SUFFIX)), segmentSize);
+        segments.addLast(segment);
+        // Keep within size, at the expense of the oldest records
+        while ((long) segments.size() * segmentSize > cap) {
+            Segment oldest = segments.pollFirst();
+            int lost = 0;
+            for (int pos = oldest.read; pos < oldest.write; pos += 4 + Math.abs(oldest.length(pos)))
+                if (oldest.length(pos) > 0)
+                    lost++;
+            log.warn("Webhook spool full, dropping {} undelivered webhooks", lost);
+            pending -= lost;
+            dropped.addAndGet(lost);
+            delete(oldest);
+        }
+        return segment;
+    }
+
+    // Oldest undelivered record
+    public synchronized Optional<Record> peek() {
+        Segment head = head();
+        if (head == null || head.delivered())
+            return Optional.empty();
+        int len = head.length(head.read);
+        byte[] bytes = new byte[len];
+        head.map.get(head.read + 4, bytes);
+        return Optional.of(new Record(head.seq, head.read, bytes));
+    }
+
+    // Marks a record returned by peek() as delivered
+    public synchronized void ack(Record record) {
+        Segment segment = null;
+        for (Segment s : segments) {
+            if (s.seq == record.seq()) {
+                segment = s;
+                break;
+            }
+        }
+        // Dropped to make room, or closed, while sending
+        if (segment == null)
+            return;
+        int len = segment.length(record.pos());
+        if (len <= 0)
+            return;
+        segment.map.putInt(record.pos(), -len);
+        segment.map.force(record.pos(), 4);
+        pending--;
+        // Skip this and records delivered before a restart
+        while (!segment.delivered() && segment.length(segment.read) < 0)
+            segment.read += 4 - segment.length(segment.read);
+    }
+
+    // First segment with undelivered records, or the only one
+    private Segment head() {
+        while (segments.size() > 1 && segments.peekFirst().delivered())
+            delete(segments.pollFirst());
+        return segments.peekFirst();
+    }
+
+    public synchronized int size() {
+        return pending;
+    }
+
+    private void delete(Segment segment) {
+        segment.close();
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        segments.forEach(Segment::close);
+        segments.clear();
+    }
+}
@@ -9,30 +9,79 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ForkJoinPool;
 
 public class WebHooks {
     static final Logger log = LoggerFactory.getLogger(WebHooks.class);
 
-    final static HttpClient client = HttpClient.newHttpClient();
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    // Shared by all targets, so that connections are pooled and HTTP/2 streams multiplexed
+    final static HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+
+    static HttpRequest request(URI url, Map<String, String> data, String authorization) {
+        return request(url, formdata(data), null, authorization);
+    }
+
+    static HttpRequest request(URI url, String body, String contentType, String authorization) {
+        return request(url, HttpRequest.BodyPublishers.ofString(body), contentType, authorization);
+    }
+
+    static HttpRequest request(URI url, HttpRequest.BodyPublisher body, String contentType, String authorization) {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(url)
+                .timeout(REQUEST_TIMEOUT)
+                .POST(body);
+        if (contentType != null)
+            request.header("Content-Type", contentType);
+        if (authorization != null)
+            request.header("Authorization", authorization);
+        return request.build();
+    }
+
+    // Fails at start for targets and headers the HTTP client would refuse on every tap
+    static void check(URI url, String authorization) {
+        String scheme = url.getScheme();
+        if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) || url.getHost() == null)
+            throw new IllegalArgumentException("Webhook must be an absolute http or https URL");
+        try {
+            request(url, "", null, authorization);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid webhook request: " + e.getMessage(), e);
+        }
+    }
+
+    // Scheme, host and port only, leaving out user info, path and query, which may carry credentials
+    static String host(URI url) {
+        return url.getScheme() + "://" + url.getHost() + (url.getPort() < 0 ? "" : ":" + url.getPort());
+    }
+
+    // Target index and host, for logs, metrics and events
+    static String label(int target, URI url) {
+        return "webhook " + target + " (" + host(url) + ")";
+    }
+
+    static boolean success(URI url, HttpResponse<?> response) {
+        if (response.statusCode() / 100 != 2) {
+            log.warn("Failed to send webhook to {}: {}", host(url), response.statusCode());
+            return false;
+        }
+        return true;
+    }
 
     public static Callable<Boolean> post(URI url, Map<String, String> data, String authorization) {
-        log.debug("Webhook to {}", url);
+        log.debug("Webhook to {}", host(url));
         return () -> {
             try {
-                HttpRequest.Builder request = HttpRequest.newBuilder()
-                        .uri(url)
-                        .POST(HttpRequest.BodyPublishers.ofString(formdata(data)));
-                if (authorization != null)
-                    request.header("Authorization", authorization);
-                HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() != 200) {
-                    log.warn("Failed to send webhook to {}: {}", url, response.statusCode());
-                    return false;
-                }
-                return true;
+                return success(url, client.send(request(url, data, authorization), HttpResponse.BodyHandlers.discarding()));
             } catch (Throwable e) {
                 log.error("Failed to send webhook", e);
                 throw e;
@@ -40,7 +89,36 @@ public class WebHooks {
         };
     }
 
-    private static String formdata(Map<String, String> formData) {
+    // Does not block, result is false on failure. Body is sent from the buffer as is, without copying. If the
+    // exchange does not complete, like on a timeout, the client may still be reading the buffer, so it is abandoned
+    public static CompletableFuture<Boolean> postAsync(int target, URI url, WebHookEncoder.Buffer body, String contentType, String authorization) {
+        return postAsync(target, url, request(url, HttpRequest.BodyPublishers.ofByteArray(body.array(), 0, body.size()), contentType, authorization), body::abandon);
+    }
+
+    public static CompletableFuture<Boolean> postAsync(int target, URI url, byte[] body, int length, String contentType, String authorization) {
+        return postAsync(target, url, request(url, HttpRequest.BodyPublishers.ofByteArray(body, 0, length), contentType, authorization), () -> {
+        });
+    }
+
+    private static CompletableFuture<Boolean> postAsync(int target, URI url, HttpRequest request, Runnable abandoned) {
+        log.debug("Webhook to {}", label(target, url));
+        long length = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(-1L);
+        TapEvents.Webhook event = new TapEvents.Webhook();
+        event.begin();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(response -> {
+                    event.end(target, url, length, response.statusCode(), null);
+                    return success(url, response);
+                })
+                .exceptionally(e -> {
+                    abandoned.run();
+                    event.end(target, url, length, 0, e);
+                    log.error("Failed to send " + label(target, url) + ": " + e.getMessage(), e);
+                    return false;
+                });
+    }
+
+    static String formdata(Map<String, String> formData) {
         StringBuilder payload = new StringBuilder();
         for (Map.Entry<String, String> e : formData.entrySet()) {
             if (payload.length() > 0) {
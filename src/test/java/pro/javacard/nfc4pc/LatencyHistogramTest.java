@@ -0,0 +1,36 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        // Every value lands in a bucket that holds it, within 1/16 of the value
+        for (long v = 0; v < 1L << 42; v = v * 3 / 2 + 1) {
+            int i = LatencyHistogram.index(v);
+            assertTrue(i >= 0 && i < LatencyHistogram.BUCKETS);
+            if (i == LatencyHistogram.BUCKETS - 1)
+                continue;
+            assertTrue(LatencyHistogram.highest(i) >= v);
+            assertTrue(LatencyHistogram.highest(i) - v <= v / 16);
+            if (i > 0)
+                assertTrue(LatencyHistogram.highest(i - 1) < v);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(0.99));
+        for (int i = 1; i <= 1000; i++)
+            h.record(i * 1000L);
+        assertEquals(1000, h.count());
+        assertEquals(1_000_000, h.max());
+        long median = h.percentile(0.5);
+        assertTrue(median >= 500_000 && median <= 500_000 + 500_000 / 16, String.valueOf(median));
+        assertEquals(1_000_000, h.percentile(1.0));
+        assertTrue(h.percentile(0.001) <= 1000 + 1000 / 16);
+    }
+}
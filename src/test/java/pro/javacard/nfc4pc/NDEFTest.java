@@ -0,0 +1,84 @@
+package pro.javacard.nfc4pc;
+
+import apdu4j.core.HexUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NDEFTest {
+
+    @Test
+    public void testShortRecord() {
+        assertEquals("https://example.com", NDEF.msg2url(HexUtils.hex2bin("D1010C55046578616D706C652E636F6D")));
+    }
+
+    @Test
+    public void testLongRecord() {
+        assertEquals("https://example.com", NDEF.msg2url(HexUtils.hex2bin("C1010000000C55046578616D706C652E636F6D")));
+    }
+
+    @Test
+    public void testPrefixes() {
+        assertEquals("tel:+3725551234", NDEF.record2url(HexUtils.hex2bin("052B33373235353531323334")));
+        assertEquals("urn:nfc:x", NDEF.record2url(HexUtils.hex2bin("2378")));
+        assertThrows(IllegalArgumentException.class, () -> NDEF.record2url(HexUtils.hex2bin("2478")));
+    }
+
+    @Test
+    public void testSmartPoster() {
+        // Sp with title record and URI record
+        String sp = "D1021C5370" + "91010854" + "02656E5469746C65" + "51010C55046578616D706C652E636F6D";
+        assertEquals("https://example.com", NDEF.msg2url(HexUtils.hex2bin(sp)));
+    }
+
+    @Test
+    public void testMultipleRecords() {
+        // Text record first, then URI
+        String msg = "91010854" + "02656E5469746C65" + "51010C55046578616D706C652E636F6D";
+        assertEquals("https://example.com", NDEF.msg2url(HexUtils.hex2bin(msg)));
+    }
+
+    @Test
+    public void testChunked() {
+        // URI payload in two chunks
+        String msg = "B1010455" + "04657861" + "560008" + "6D706C652E636F6D";
+        assertEquals("https://example.com", NDEF.msg2url(HexUtils.hex2bin(msg)));
+    }
+
+    @Test
+    public void testCursor() {
+        NDEFMessage msg = NDEFMessage.wrap(HexUtils.hex2bin("99010801" + "54" + "49" + "02656E5469746C65" + "50000000"));
+        assertTrue(msg.next());
+        assertTrue(msg.isType(NDEFMessage.TNF_WELL_KNOWN, (byte) 'T'));
+        assertEquals(ByteBuffer.wrap(new byte[]{'I'}), msg.id());
+        assertEquals(8, msg.payloadLength());
+        assertTrue(msg.next());
+        assertEquals(NDEFMessage.TNF_EMPTY, msg.tnf());
+        assertTrue(msg.isLast());
+        assertFalse(msg.next());
+    }
+
+    @Test
+    public void testMalformed() {
+        // Text record only
+        assertThrows(IllegalArgumentException.class, () -> NDEF.msg2url(HexUtils.hex2bin("D101085402656E5469746C65")));
+        // Truncated
+        assertThrows(IllegalArgumentException.class, () -> NDEF.msg2url(HexUtils.hex2bin("D1010C5504657861")));
+        // No MB
+        assertThrows(IllegalArgumentException.class, () -> NDEF.msg2url(HexUtils.hex2bin("51010C55046578616D706C652E636F6D")));
+    }
+
+    @Test
+    public void testUID() {
+        for (String hex : new String[]{"01020304", "04112233445566", "0411223344556677889A"}) {
+            UID uid = UID.of(HexUtils.hex2bin(hex));
+            assertEquals(hex.toLowerCase(), uid.toString());
+            assertArrayEquals(HexUtils.hex2bin(hex), uid.toByteArray());
+            assertEquals(UID.of(HexUtils.hex2bin(hex)), uid);
+        }
+        assertNotEquals(UID.of(HexUtils.hex2bin("00000000")), UID.of(HexUtils.hex2bin("00000000000000")));
+        assertThrows(IllegalArgumentException.class, () -> UID.of(new byte[5]));
+    }
+}
@@ -0,0 +1,392 @@
+package pro.javacard.nfc4pc;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NFCReaderTest {
+    static final byte[] TAG_UID = new byte[]{0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    static final String URL = "https://example.com/badge/0123456789";
+
+    static Queue<NFCTapData> taps(SimulatedTerminals terminals, String reader, int count) throws InterruptedException {
+        Queue<NFCTapData> taps = new ConcurrentLinkedQueue<>();
+        CountDownLatch latch = new CountDownLatch(count);
+        try (NFCReader nfc = new NFCReader(data -> {
+            taps.add(data);
+            latch.countDown();
+        }, terminals.manager())) {
+            for (int i = 0; i < count; i++)
+                nfc.tap(reader);
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            return taps;
+        }
+    }
+
+    @Test
+    public void testType2() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated Type 2", Duration.ZERO);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496)));
+        for (NFCTapData tap : taps(terminals, reader.getName(), 1000)) {
+            assertNull(tap.error());
+            assertEquals(UID.of(TAG_UID), tap.uid());
+            assertEquals(URI.create(URL), tap.url());
+        }
+    }
+
+    @Test
+    public void testType2ReadSizes() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        byte[] memory = SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL + "/" + "x".repeat(300)), 872);
+        // Returns 4 bytes whatever is asked, like Cloud 3700F
+        var short4 = terminals.add("Simulated 4", Duration.ZERO).limit(4, false);
+        // Refuses reads over 16 bytes
+        var strict16 = terminals.add("Simulated 16", Duration.ZERO).limit(16, true);
+        for (var reader : List.of(short4, strict16)) {
+            reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, memory));
+            for (NFCTapData tap : taps(terminals, reader.getName(), 3)) {
+                assertNull(tap.error());
+                assertEquals(URI.create(URL + "/" + "x".repeat(300)), tap.url());
+            }
+        }
+        assertEquals(4, (int) NDEF.type2ReadSizes.get(short4.getName()));
+        assertEquals(16, (int) NDEF.type2ReadSizes.get(strict16.getName()));
+    }
+
+    @Test
+    public void testType2StopsAtMessage() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated 16 bytes", Duration.ZERO).limit(16, true);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 872)));
+        taps(terminals, reader.getName(), 1).forEach(tap -> assertEquals(URI.create(URL), tap.url()));
+        long first = reader.apdus();
+        taps(terminals, reader.getName(), 1).forEach(tap -> assertEquals(URI.create(URL), tap.url()));
+        // TAG_UID, CC and 3 reads of 16 bytes for 48 bytes of TLV-s, instead of the whole 872 byte area
+        assertEquals(5, reader.apdus() - first);
+    }
+
+    @Test
+    public void testType2PartialPages() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        String url = URL + "/" + "x".repeat(300);
+        // Returns 6 bytes, a page and a half, whatever is asked
+        var reader = terminals.add("Simulated 6", Duration.ZERO).limit(6, false);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(url), 872)));
+        for (NFCTapData tap : taps(terminals, reader.getName(), 2)) {
+            assertNull(tap.error());
+            assertEquals(URI.create(url), tap.url());
+        }
+    }
+
+    @Test
+    public void testType2LargeArea() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        // Data area of 2032 bytes, more than READ BINARY can address
+        var near = terminals.add("Simulated large area", Duration.ZERO);
+        near.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 2032)));
+        for (NFCTapData tap : taps(terminals, near.getName(), 1))
+            assertEquals(URI.create(URL), tap.url());
+        var far = terminals.add("Simulated large message", Duration.ZERO);
+        far.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL + "/" + "x".repeat(1100)), 2032)));
+        for (NFCTapData tap : taps(terminals, far.getName(), 1)) {
+            assertNotNull(tap.error());
+            assertTrue(tap.error().getMessage().contains("sector select"), tap.error().getMessage());
+        }
+    }
+
+    @Test
+    public void testInvalidUrl() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated invalid URL", Duration.ZERO);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri("https://example.com/a b"), 496)));
+        // A failed read, like before URI-s were created on demand
+        for (NFCTapData tap : taps(terminals, reader.getName(), 1)) {
+            assertTrue(tap.error() instanceof IllegalArgumentException, String.valueOf(tap.error()));
+            assertNull(tap.location());
+        }
+    }
+
+    @Test
+    public void testType2Empty() {
+        byte[] area = new byte[]{0x03, 0x00, (byte) 0xFE, 0x00};
+        assertEquals(0, NDEF.type2_scan(area, 0, area.length));
+        assertThrows(IllegalArgumentException.class, () -> NDEF.type2_to_message(new byte[8]));
+    }
+
+    @Test
+    public void testType4() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated Type 4", Duration.ZERO);
+        byte[] ndef = SimulatedTerminals.type4ndef(SimulatedTerminals.uri(URL));
+        reader.insert(SimulatedTerminals.Tag.type4(TAG_UID, SimulatedTerminals.type4cc(0xFF, ndef.length), ndef));
+        for (NFCTapData tap : taps(terminals, reader.getName(), 1000)) {
+            assertNull(tap.error());
+            assertEquals(URI.create(URL), tap.url());
+        }
+    }
+
+    @Test
+    public void testType4Large() throws Exception {
+        String url = URL + "/" + "x".repeat(4000);
+        byte[] ndef = SimulatedTerminals.type4ndef(SimulatedTerminals.uri(url));
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var extended = terminals.add("Simulated extended", Duration.ZERO);
+        var short256 = terminals.add("Simulated short", Duration.ZERO).extended(false);
+        var failing = terminals.add("Simulated failing", Duration.ZERO).failExtended();
+        for (var reader : List.of(extended, short256, failing)) {
+            reader.insert(SimulatedTerminals.Tag.type4(TAG_UID, SimulatedTerminals.type4cc(0x1000, ndef.length), ndef));
+            for (NFCTapData tap : taps(terminals, reader.getName(), 2)) {
+                assertNull(tap.error());
+                assertEquals(URI.create(url), tap.url());
+            }
+        }
+        assertFalse(NDEF.type4ShortOnly.contains(extended.getName()));
+        assertTrue(NDEF.type4ShortOnly.contains(short256.getName()));
+        assertTrue(NDEF.type4ShortOnly.contains(failing.getName()));
+        // TAG_UID, SELECT application, SELECT and READ CC, SELECT NDEF file, READ BINARY of the length
+        // and a single extended READ BINARY for the rest. No Type 2 probe, as the ATR is of an ISO 14443-4 card.
+        long before = extended.apdus();
+        taps(terminals, extended.getName(), 1);
+        assertEquals(7, extended.apdus() - before);
+    }
+
+    @Test
+    public void testType4LargeFile() throws Exception {
+        byte[] ndef = SimulatedTerminals.type4ndef(SimulatedTerminals.uri(URL));
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated large file", Duration.ZERO).extended(false);
+        reader.insert(SimulatedTerminals.Tag.type4(TAG_UID, SimulatedTerminals.type4cc(0x1000, 0x7FFF), ndef));
+        // Short message read with the length, no extended read for the size of the file
+        long before = reader.apdus();
+        for (NFCTapData tap : taps(terminals, reader.getName(), 1))
+            assertEquals(URI.create(URL), tap.url());
+        assertEquals(6, reader.apdus() - before);
+        assertFalse(NDEF.type4ShortOnly.contains(reader.getName()));
+    }
+
+    @Test
+    public void testWorkers() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        Queue<NFCTapData> taps = new ConcurrentLinkedQueue<>();
+        CountDownLatch latch = new CountDownLatch(64);
+        try (NFCReader nfc = new NFCReader(data -> {
+            taps.add(data);
+            latch.countDown();
+        }, terminals.manager())) {
+            // More readers than workers, each with a slow tag
+            for (int i = 0; i < 16; i++) {
+                var reader = terminals.add("Simulated worker " + i, Duration.ofMillis(1));
+                reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496)));
+            }
+            for (int round = 0; round < 4; round++)
+                for (int i = 0; i < 16; i++)
+                    nfc.tap("Simulated worker " + i);
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            taps.forEach(tap -> assertEquals(URI.create(URL), tap.url()));
+            assertEquals(16, nfc.workers.size());
+            // Unplugged readers are forgotten, once their workers are done
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (nfc.workers.values().stream().anyMatch(w -> !w.idle()) && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            nfc.retain(List.of("Simulated worker 0"));
+            assertEquals(List.of("Simulated worker 0"), List.copyOf(nfc.workers.keySet()));
+        }
+    }
+
+    @Test
+    public void testRetainBusy() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated busy", Duration.ZERO);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496)));
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (NFCReader nfc = new NFCReader(data -> {
+            reading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, terminals.manager())) {
+            nfc.tap(reader.getName());
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+            var worker = nfc.workers.get(reader.getName());
+            // Gone while busy: kept, so that a returning reader gets the same worker
+            nfc.retain(List.of());
+            assertSame(worker, nfc.workers.get(reader.getName()));
+            assertTrue(worker.stale);
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!worker.idle() && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            nfc.retain(List.of());
+            assertNull(nfc.workers.get(reader.getName()));
+        }
+    }
+
+    @Test
+    public void testCardEvents() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated events", Duration.ZERO);
+        var tag = SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496));
+        // Present at start, so not a tap
+        reader.insert(tag);
+        BlockingQueue<NFCTapData> taps = new LinkedBlockingQueue<>();
+        try (NFCReader nfc = new NFCReader(taps::add, terminals.manager(), true)) {
+            assertNull(taps.poll(200, TimeUnit.MILLISECONDS));
+            for (int i = 0; i < 3; i++) {
+                reader.remove();
+                reader.insert(tag);
+                NFCTapData tap = taps.poll(5, TimeUnit.SECONDS);
+                assertNotNull(tap);
+                assertEquals(URI.create(URL), tap.url());
+            }
+            assertEquals(3, nfc.workers.get(reader.getName()).detections);
+        }
+    }
+
+    @Test
+    public void testSuppressRepeats() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated repeats", Duration.ZERO);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496)));
+        BlockingQueue<NFCTapData> taps = new LinkedBlockingQueue<>();
+        try (NFCReader nfc = new NFCReader(taps::add, terminals.manager()).suppress(Duration.ofMinutes(1), 16)) {
+            nfc.tap(reader.getName());
+            assertNotNull(taps.poll(5, TimeUnit.SECONDS));
+            long apdus = reader.apdus();
+            nfc.tap(reader.getName());
+            assertNull(taps.poll(200, TimeUnit.MILLISECONDS));
+            // Only the UID was read
+            assertEquals(1, reader.apdus() - apdus);
+        }
+    }
+
+    @Test
+    public void testRetryAfterError() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated retry", Duration.ZERO);
+        // Text record, no URL
+        byte[] text = {(byte) 0xD1, 0x01, 0x03, 'T', 0x02, 'e', 'n'};
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, text, 496)));
+        BlockingQueue<NFCTapData> taps = new LinkedBlockingQueue<>();
+        try (NFCReader nfc = new NFCReader(taps::add, terminals.manager()).suppress(Duration.ofMinutes(1), 16)) {
+            // Both taps read, as the first one failed
+            for (int i = 0; i < 2; i++) {
+                nfc.tap(reader.getName());
+                NFCTapData tap = taps.poll(5, TimeUnit.SECONDS);
+                assertNotNull(tap);
+                assertNotNull(tap.error());
+            }
+            assertEquals(0, nfc.dedup().suppressed.sum());
+        }
+    }
+
+    @Test
+    public void testCachedReadOnly() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var locked = terminals.add("Simulated locked", Duration.ZERO);
+        var writable = terminals.add("Simulated writable", Duration.ZERO);
+        byte[] memory = SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496);
+        writable.insert(SimulatedTerminals.Tag.type2(TAG_UID, memory.clone()));
+        // No write access in the capability container
+        memory[15] = 0x0F;
+        locked.insert(SimulatedTerminals.Tag.type2(TAG_UID, memory));
+
+        BlockingQueue<NFCTapData> taps = new LinkedBlockingQueue<>();
+        try (NFCReader nfc = new NFCReader(taps::add, terminals.manager()).cached(16)) {
+            for (var reader : List.of(locked, writable)) {
+                for (int i = 0; i < 3; i++) {
+                    long apdus = reader.apdus();
+                    nfc.tap(reader.getName());
+                    NFCTapData tap = taps.poll(5, TimeUnit.SECONDS);
+                    assertNotNull(tap);
+                    assertEquals(URI.create(URL), tap.url());
+                    assertEquals("type2", tap.type());
+                    // UID and capability container only, once known
+                    if (i > 0)
+                        assertEquals(reader == locked ? 2 : 3, reader.apdus() - apdus);
+                }
+            }
+            assertEquals(2, nfc.cache().hits.sum());
+            assertEquals(1, nfc.cache().misses.sum());
+        }
+    }
+
+    @Test
+    public void testTimings() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated timings", Duration.ZERO);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496)));
+        BlockingQueue<NFCTapData> taps = new LinkedBlockingQueue<>();
+        try (NFCReader nfc = new NFCReader(taps::add, terminals.manager())) {
+            for (int i = 0; i < 3; i++)
+                nfc.tap(reader.getName());
+            for (int i = 0; i < 3; i++) {
+                NFCTapData tap = taps.poll(5, TimeUnit.SECONDS);
+                assertNotNull(tap);
+                assertTrue(tap.timings().nanos(TapTimings.Stage.UID) > 0);
+                assertTrue(tap.timings().nanos(TapTimings.Stage.PARSE) > 0);
+                // Type 2 found, so no Type 4 probe
+                assertEquals(0, tap.timings().nanos(TapTimings.Stage.TYPE4));
+            }
+            var worker = nfc.workers.get(reader.getName());
+            // Recorded after the processor returns
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (worker.latency(TapTimings.Stage.DISPATCH).count() < 3 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(3, worker.latency(TapTimings.Stage.DISPATCH).count());
+            assertEquals(3, worker.latency(TapTimings.Stage.TYPE2).count());
+            assertEquals(0, worker.latency(TapTimings.Stage.TYPE4).count());
+        }
+    }
+
+    @Test
+    public void testFlightRecorder() throws Exception {
+        SimulatedTerminals terminals = new SimulatedTerminals();
+        var reader = terminals.add("Simulated JFR", Duration.ZERO);
+        reader.insert(SimulatedTerminals.Tag.type2(TAG_UID, SimulatedTerminals.type2(TAG_UID, SimulatedTerminals.uri(URL), 496)));
+        Path file = Files.createTempFile("nfc4pc", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("nfc4pc.Tap");
+            recording.enable("nfc4pc.APDU");
+            recording.start();
+            try (NFCReader nfc = new NFCReader(data -> {
+            }, terminals.manager())) {
+                nfc.tap(reader.getName());
+                // Tap event ends once the processor returns
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while ((nfc.workers.get(reader.getName()) == null || nfc.workers.get(reader.getName()).latency(TapTimings.Stage.DISPATCH).count() == 0) && System.nanoTime() < deadline)
+                    Thread.sleep(10);
+                recording.stop();
+                recording.dump(file);
+                List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+                RecordedEvent tap = events.stream().filter(e -> e.getEventType().getName().equals("nfc4pc.Tap")).findFirst().orElseThrow();
+                assertEquals(reader.getName(), tap.getString("reader"));
+                assertEquals(UID.of(TAG_UID).toString(), tap.getString("uid"));
+                assertEquals(URL, tap.getString("url"));
+                // GET DATA for the UID comes first
+                RecordedEvent apdu = events.stream().filter(e -> e.getEventType().getName().equals("nfc4pc.APDU")).findFirst().orElseThrow();
+                assertEquals(0xCA, apdu.getInt("ins"));
+                assertEquals(0x9000, apdu.getInt("sw"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
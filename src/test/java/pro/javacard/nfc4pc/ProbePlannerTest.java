@@ -0,0 +1,54 @@
+package pro.javacard.nfc4pc;
+
+import apdu4j.core.HexUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProbePlannerTest {
+    // NTAG215, DESFire EV1 and a contact card
+    static final byte[] ULTRALIGHT = HexUtils.hex2bin("3B8F8001804F0CA0000003060300030000000068");
+    static final byte[] DESFIRE = HexUtils.hex2bin("3B8180018080");
+    static final byte[] CONTACT = HexUtils.hex2bin("3BDB9600801F830031C0641A18010007900080");
+
+    @Test
+    public void testATR() {
+        assertEquals(ProbePlanner.STANDARD_ISO14443A_3, ProbePlanner.storage(ULTRALIGHT));
+        assertEquals(-1, ProbePlanner.storage(DESFIRE));
+        assertFalse(ProbePlanner.contactless(CONTACT));
+        assertEquals(ProbePlanner.Plan.TYPE2_ONLY, ProbePlanner.plan(ULTRALIGHT, null));
+        assertEquals(ProbePlanner.Plan.TYPE4_FIRST, ProbePlanner.plan(DESFIRE, null));
+        assertEquals(ProbePlanner.Plan.TYPE2_FIRST, ProbePlanner.plan(CONTACT, null));
+        assertEquals(ProbePlanner.Plan.TYPE2_FIRST, ProbePlanner.plan(new byte[0], null));
+        // Memory tags never do APDU-s, whatever was learned
+        assertEquals(ProbePlanner.Plan.TYPE2_ONLY, ProbePlanner.plan(ULTRALIGHT, ProbePlanner.TagType.TYPE4));
+    }
+
+    @Test
+    public void testLearning() {
+        ProbePlanner planner = new ProbePlanner(2);
+        ProbePlanner.Plan plan = planner.plan("A", CONTACT);
+        assertEquals(ProbePlanner.Plan.TYPE2_FIRST, plan);
+        planner.outcome("A", CONTACT, plan, ProbePlanner.TagType.TYPE4);
+        assertEquals(0, planner.skipped.sum());
+
+        // Learned for the reader only
+        plan = planner.plan("A", CONTACT);
+        assertEquals(ProbePlanner.Plan.TYPE4_FIRST, plan);
+        planner.outcome("A", CONTACT, plan, ProbePlanner.TagType.TYPE4);
+        assertEquals(1, planner.skipped.sum());
+        assertEquals(ProbePlanner.Plan.TYPE2_FIRST, planner.plan("B", CONTACT));
+
+        // Wrong guess costs a probe
+        plan = planner.plan("C", DESFIRE);
+        planner.outcome("C", DESFIRE, plan, ProbePlanner.TagType.TYPE2);
+        assertEquals(1, planner.mispredicted.sum());
+        assertEquals(ProbePlanner.Plan.TYPE2_FIRST, planner.plan("C", DESFIRE));
+
+        // Empty memory tag, no SELECT for Type 4
+        plan = planner.plan("A", ULTRALIGHT);
+        planner.outcome("A", ULTRALIGHT, plan, null);
+        assertEquals(2, planner.skipped.sum());
+        assertEquals(3, planner.plans[ProbePlanner.Plan.TYPE2_FIRST.ordinal()].sum());
+    }
+}
@@ -0,0 +1,382 @@
+package pro.javacard.nfc4pc;
+
+import apdu4j.pcsc.TerminalManager;
+
+import javax.smartcardio.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Provider;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// In-memory PC/SC readers that serve tag images, for driving NFCReader without hardware.
+// Answers the commands used in NDEF: GET UID and READ BINARY of the reader (FF CA, FF B0) and
+// SELECT/READ BINARY of the Type 4 NDEF application.
+public final class SimulatedTerminals extends CardTerminals {
+    static final String TYPE = "Simulated";
+
+    private final Map<String, Reader> readers = new ConcurrentHashMap<>();
+    private final Object changes = new Object();
+    private long version; // of changes
+    private long seen; // by waitForChange
+
+    // Tag image: UID and either Type 2 memory (from block 0) or Type 4 CC and NDEF files
+    public record Tag(byte[] uid, byte[] memory, byte[] cc, byte[] ndef) {
+        public static Tag type2(byte[] uid, byte[] memory) {
+            return new Tag(uid, memory, null, null);
+        }
+
+        public static Tag type4(byte[] uid, byte[] cc, byte[] ndef) {
+            return new Tag(uid, null, cc, ndef);
+        }
+
+        boolean isType2() {
+            return memory != null;
+        }
+    }
+
+    public Reader add(String name, Duration latency) {
+        Reader r = new Reader(name, latency);
+        readers.put(name, r);
+        changed();
+        return r;
+    }
+
+    public TerminalManager manager() {
+        try {
+            return new TerminalManager(TerminalFactory.getInstance(TYPE, this, new SimulatedProvider()));
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not create simulated terminal factory", e);
+        }
+    }
+
+    private void changed() {
+        synchronized (changes) {
+            version++;
+            changes.notifyAll();
+        }
+    }
+
+    @Override
+    public List<CardTerminal> list(State state) {
+        List<CardTerminal> result = new ArrayList<>();
+        for (Reader r : readers.values()) {
+            boolean present = r.isCardPresent();
+            if (state == State.ALL || (state == State.CARD_PRESENT && present) || (state == State.CARD_ABSENT && !present))
+                result.add(r);
+            // Since last call, as with SunPCSC
+            else if (state == State.CARD_INSERTION && r.inserted.getAndSet(false))
+                result.add(r);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean waitForChange(long timeout) {
+        synchronized (changes) {
+            try {
+                if (version == seen)
+                    changes.wait(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            boolean changed = version != seen;
+            seen = version;
+            return changed;
+        }
+    }
+
+    // Reader with a tag slot and a fixed latency per APDU
+    public final class Reader extends CardTerminal {
+        private final String name;
+        private final long latency;
+        private volatile Tag tag;
+        private final AtomicBoolean inserted = new AtomicBoolean();
+        private final AtomicLong apdus = new AtomicLong();
+        // Type 2 READ BINARY limit: longer reads are truncated or, if strict, refused with 6700
+        private int readLimit = 256;
+        private boolean strict;
+        private boolean extended = true;
+        private boolean failExtended;
+
+        Reader(String name, Duration latency) {
+            this.name = name;
+            this.latency = latency.toNanos();
+        }
+
+        public void insert(Tag tag) {
+            this.tag = tag;
+            inserted.set(true);
+            changed();
+        }
+
+        public void remove() {
+            this.tag = null;
+            changed();
+        }
+
+        public Reader limit(int bytes, boolean strict) {
+            this.readLimit = bytes;
+            this.strict = strict;
+            return this;
+        }
+
+        public Reader extended(boolean extended) {
+            this.extended = extended;
+            return this;
+        }
+
+        // Extended length APDU-s fail the transmit, instead of returning 6700
+        public Reader failExtended() {
+            this.extended = false;
+            this.failExtended = true;
+            return this;
+        }
+
+        public long apdus() {
+            return apdus.get();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Card connect(String protocol) throws CardException {
+            Tag t = tag;
+            if (t == null)
+                throw new CardNotPresentException("No card present in " + name);
+            return new SimulatedCard(this, t);
+        }
+
+        @Override
+        public boolean isCardPresent() {
+            return tag != null;
+        }
+
+        @Override
+        public boolean waitForCardPresent(long timeout) {
+            return isCardPresent();
+        }
+
+        @Override
+        public boolean waitForCardAbsent(long timeout) {
+            return !isCardPresent();
+        }
+    }
+
+    static final class SimulatedCard extends Card {
+        private final Reader reader;
+        private final Tag tag;
+        private final CardChannel channel = new SimulatedChannel();
+        private byte[] selected;
+        private boolean ndefApplication;
+
+        SimulatedCard(Reader reader, Tag tag) {
+            this.reader = reader;
+            this.tag = tag;
+        }
+
+        @Override
+        public ATR getATR() {
+            // PC/SC part 3 storage card ATR for Ultralight, ISO 14443-4 card with ATS historical bytes otherwise
+            if (tag.isType2())
+                return new ATR(new byte[]{0x3B, (byte) 0x8F, (byte) 0x80, 0x01, (byte) 0x80, 0x4F, 0x0C, (byte) 0xA0, 0x00, 0x00, 0x03, 0x06, 0x03, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x68});
+            return new ATR(new byte[]{0x3B, (byte) 0x81, (byte) 0x80, 0x01, (byte) 0x80, (byte) 0x80});
+        }
+
+        @Override
+        public String getProtocol() {
+            return "T=1";
+        }
+
+        @Override
+        public CardChannel getBasicChannel() {
+            return channel;
+        }
+
+        @Override
+        public CardChannel openLogicalChannel() throws CardException {
+            throw new CardException("Logical channels not supported");
+        }
+
+        @Override
+        public void beginExclusive() {
+        }
+
+        @Override
+        public void endExclusive() {
+        }
+
+        @Override
+        public byte[] transmitControlCommand(int code, byte[] command) throws CardException {
+            throw new CardException("Control commands not supported");
+        }
+
+        @Override
+        public void disconnect(boolean reset) {
+        }
+
+        CommandAPDU checked(CommandAPDU c) throws CardException {
+            if (c.getNe() > 256 && reader.failExtended)
+                throw new CardException("SCARD_E_NOT_TRANSACTED");
+            return c;
+        }
+
+        byte[] process(CommandAPDU c) {
+            if (reader.latency > 0)
+                LockSupport.parkNanos(reader.latency);
+            reader.apdus.incrementAndGet();
+            int ins = c.getINS();
+            if (c.getNe() > 256 && !reader.extended)
+                return sw(0x6700);
+            if (c.getCLA() == 0xFF && ins == 0xCA)
+                return ok(tag.uid());
+            if (c.getCLA() == 0xFF && ins == 0xB0) {
+                if (!tag.isType2())
+                    return sw(0x6A81);
+                if (c.getNe() > reader.readLimit && reader.strict)
+                    return sw(0x6700);
+                return read(tag.memory(), c.getP2() * 4, Math.min(c.getNe(), reader.readLimit));
+            }
+            if (c.getCLA() == 0x00 && ins == 0xA4) {
+                if (tag.isType2())
+                    return sw(0x6A82);
+                if (c.getP1() == 0x04) {
+                    ndefApplication = Arrays.equals(c.getData(), NDEF.NDEF_AID);
+                    return ndefApplication ? sw(0x9000) : sw(0x6A82);
+                }
+                byte[] fid = c.getData();
+                if (!ndefApplication || fid.length != 2)
+                    return sw(0x6A82);
+                int id = ((fid[0] & 0xFF) << 8) | (fid[1] & 0xFF);
+                selected = id == 0xE103 ? tag.cc() : id == 0xE104 ? tag.ndef() : null;
+                return selected == null ? sw(0x6A82) : sw(0x9000);
+            }
+            if (c.getCLA() == 0x00 && ins == 0xB0) {
+                if (selected == null)
+                    return sw(0x6986);
+                return read(selected, (c.getP1() << 8) | c.getP2(), c.getNe());
+            }
+            return sw(0x6D00);
+        }
+
+        static byte[] read(byte[] data, int offset, int ne) {
+            if (offset >= data.length)
+                return sw(0x6B00);
+            return ok(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + ne)));
+        }
+
+        static byte[] ok(byte[] data) {
+            byte[] r = Arrays.copyOf(data, data.length + 2);
+            r[data.length] = (byte) 0x90;
+            return r;
+        }
+
+        static byte[] sw(int sw) {
+            return new byte[]{(byte) (sw >> 8), (byte) sw};
+        }
+
+        final class SimulatedChannel extends CardChannel {
+            @Override
+            public Card getCard() {
+                return SimulatedCard.this;
+            }
+
+            @Override
+            public int getChannelNumber() {
+                return 0;
+            }
+
+            @Override
+            public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+                return new ResponseAPDU(process(checked(command)));
+            }
+
+            @Override
+            public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+                byte[] c = new byte[command.remaining()];
+                command.get(c);
+                byte[] r = process(checked(new CommandAPDU(c)));
+                response.put(r);
+                return r.length;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    // Builds an NDEF message with a single URI record, without prefix compression
+    public static byte[] uri(String url) {
+        byte[] u = url.getBytes(StandardCharsets.UTF_8);
+        if (u.length + 1 <= 0xFF) {
+            ByteBuffer b = ByteBuffer.allocate(5 + u.length);
+            b.put((byte) 0xD1).put((byte) 0x01).put((byte) (u.length + 1)).put((byte) 0x55).put((byte) 0x00).put(u);
+            return b.array();
+        }
+        ByteBuffer b = ByteBuffer.allocate(8 + u.length);
+        b.put((byte) 0xC1).put((byte) 0x01).putInt(u.length + 1).put((byte) 0x55).put((byte) 0x00).put(u);
+        return b.array();
+    }
+
+    // Memory: UID and lock blocks, capability container, lock control TLV, NDEF TLV and terminator
+    public static byte[] type2(byte[] uid, byte[] msg, int size) {
+        byte[] memory = new byte[16 + size];
+        System.arraycopy(uid, 0, memory, 0, Math.min(uid.length, 9));
+        memory[12] = (byte) 0xE1;
+        memory[13] = 0x10;
+        memory[14] = (byte) (size / 8);
+        int pos = 16;
+        for (byte b : new byte[]{0x01, 0x03, (byte) 0xA0, 0x0C, 0x34})
+            memory[pos++] = b;
+        memory[pos++] = 0x03;
+        if (msg.length < 0xFF) {
+            memory[pos++] = (byte) msg.length;
+        } else {
+            memory[pos++] = (byte) 0xFF;
+            memory[pos++] = (byte) (msg.length >> 8);
+            memory[pos++] = (byte) msg.length;
+        }
+        System.arraycopy(msg, 0, memory, pos, msg.length);
+        memory[pos + msg.length] = (byte) 0xFE;
+        return memory;
+    }
+
+    // Capability container with given MLe and NDEF file size, and the NDEF file itself
+    public static byte[] type4cc(int mle, int size) {
+        return new byte[]{0x00, 0x0F, 0x20, (byte) (mle >> 8), (byte) mle, 0x00, (byte) 0xFF, 0x04, 0x06, (byte) 0xE1, 0x04, (byte) (size >> 8), (byte) size, 0x00, (byte) 0xFF};
+    }
+
+    public static byte[] type4ndef(byte[] msg) {
+        return ByteBuffer.allocate(2 + msg.length).putShort((short) msg.length).put(msg).array();
+    }
+
+    static final class SimulatedProvider extends Provider {
+        private static final long serialVersionUID = 1L;
+
+        SimulatedProvider() {
+            super("nfc4pc-simulated", "1.0", "Simulated PC/SC readers");
+            put("TerminalFactory." + TYPE, Factory.class.getName());
+        }
+    }
+
+    public static final class Factory extends TerminalFactorySpi {
+        private final SimulatedTerminals terminals;
+
+        public Factory(Object parameter) {
+            this.terminals = (SimulatedTerminals) parameter;
+        }
+
+        @Override
+        protected CardTerminals engineTerminals() {
+            return terminals;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static pro.javacard.nfc4pc.NFCReaderTest.TAG_UID;
+import static pro.javacard.nfc4pc.NFCReaderTest.URL;
+
+public class TapCacheTest {
+    @Test
+    public void testCache() {
+        TapCache cache = new TapCache(2);
+        UID a = UID.of(TAG_UID);
+        byte[] cc = {(byte) 0xE1, 0x10, 0x3E, 0x0F};
+        cache.put(a, "type2", cc, new TapCache.Result("type2", URI.create(URL), null));
+        assertEquals(URL, cache.get(a, "type2", cc.clone()).location());
+        // Reformatted tag is not the same
+        assertNull(cache.get(a, "type2", new byte[]{(byte) 0xE1, 0x10, 0x12, 0x0F}));
+        cache.put(UID.of(new byte[]{1, 2, 3, 4}), "type2", cc, new TapCache.Result("type2", URI.create(URL), null));
+        cache.get(a, "type2", cc);
+        // Least recently used goes
+        cache.put(UID.of(new byte[]{1, 2, 3, 5}), "type2", cc, new TapCache.Result("type2", URI.create(URL), null));
+        assertNotNull(cache.get(a, "type2", cc));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions.sum());
+        assertEquals(3, cache.hits.sum());
+        assertEquals(1, cache.misses.sum());
+    }
+}
@@ -0,0 +1,33 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static pro.javacard.nfc4pc.NFCReaderTest.TAG_UID;
+
+public class TapDedupTest {
+    @Test
+    public void testDedup() {
+        TapDedup dedup = new TapDedup(Duration.ofSeconds(1), 2);
+        UID a = UID.of(TAG_UID);
+        UID b = UID.of(new byte[]{1, 2, 3, 4});
+        assertTrue(dedup.accept("r1", a, 0));
+        // Not read yet
+        assertTrue(dedup.accept("r1", a, 100_000_000L));
+        dedup.record("r1", a, 100_000_000L);
+        assertFalse(dedup.accept("r1", a, 500_000_000L));
+        // Window restarts with every repeat
+        assertFalse(dedup.accept("r1", a, 1_400_000_000L));
+        assertTrue(dedup.accept("r1", a, 2_500_000_000L));
+        dedup.record("r1", a, 2_500_000_000L);
+        // Other reader, other tag
+        assertTrue(dedup.accept("r2", a, 2_500_000_000L));
+        dedup.record("r2", a, 2_500_000_000L);
+        assertTrue(dedup.accept("r1", b, 2_600_000_000L));
+        dedup.record("r1", b, 2_600_000_000L);
+        assertEquals(2, dedup.size());
+        assertEquals(2, dedup.suppressed.sum());
+    }
+}
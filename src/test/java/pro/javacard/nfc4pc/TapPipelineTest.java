@@ -0,0 +1,85 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TapPipelineTest {
+    static NFCTapData tap() {
+        return new NFCTapData("Reader", UID.of(new byte[]{1, 2, 3, 4}), NFCReaderTest.URL, 0, null);
+    }
+
+    @Test
+    public void testSlowSink() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fast = new CountDownLatch(3);
+        try (TapPipeline pipeline = new TapPipeline(1)) {
+            pipeline.add("slow", data -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, Duration.ZERO);
+            TapPipeline.Sink slow = pipeline.sinks.get(0);
+            // One running, one waiting, one dropped
+            for (int i = 0; i < 3; i++)
+                pipeline.onNFCTap(tap());
+            assertEquals(1, slow.dropped.sum());
+
+            // A sink added later is not held up by the stuck one
+            pipeline.add("fast", data -> fast.countDown());
+            for (int i = 0; i < 3; i++) {
+                pipeline.onNFCTap(tap());
+                Thread.sleep(20);
+            }
+            assertTrue(fast.await(5, TimeUnit.SECONDS));
+            assertEquals(0, pipeline.sinks.get(1).dropped.sum());
+            release.countDown();
+            pipeline.close(Duration.ofSeconds(5));
+            assertEquals(2, slow.processed.sum());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        try (TapPipeline pipeline = new TapPipeline(4)) {
+            pipeline.add("stuck", data -> {
+                try {
+                    // Not interrupted on timeout
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                    finished.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, Duration.ofMillis(50));
+            pipeline.add("failing", data -> {
+                throw new IllegalStateException("broken");
+            });
+            pipeline.submit(tap()).get(5, TimeUnit.SECONDS);
+            assertEquals(1, pipeline.sinks.get(0).timedOut.sum());
+            assertEquals(1, pipeline.sinks.get(1).failed.sum());
+            release.countDown();
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testDirect() throws Exception {
+        Thread caller = Thread.currentThread();
+        try (TapPipeline pipeline = new TapPipeline(1)) {
+            pipeline.direct("direct", data -> assertSame(caller, Thread.currentThread()));
+            for (int i = 0; i < 3; i++)
+                assertTrue(pipeline.submit(tap()).isDone());
+            TapPipeline.Sink direct = pipeline.sinks.get(0);
+            assertEquals(3, direct.processed.sum());
+            assertEquals(0, direct.dropped.sum());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TapStreamTest {
+    @Test
+    public void testSubscribe() throws Exception {
+        try (TapStream stream = new TapStream(MetricsServer.address("127.0.0.1:0"), 4)) {
+            HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + stream.port() + "/taps").openConnection();
+            assertEquals("text/event-stream; charset=utf-8", c.getContentType());
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8))) {
+                // Subscribed once the greeting arrives
+                assertEquals(": nfc4pc", in.readLine());
+                assertEquals("", in.readLine());
+                Map<String, String> tap = new LinkedHashMap<>();
+                tap.put("uid", "04112233445566");
+                tap.put("url", "https://example.com/\"x\"");
+                stream.publish(tap);
+                assertEquals("id: 1", in.readLine());
+                assertEquals("event: tap", in.readLine());
+                assertEquals("data: {\"uid\":\"04112233445566\",\"url\":\"https://example.com/\\\"x\\\"\"}", in.readLine());
+                assertEquals("", in.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void testSlowSubscriber() {
+        TapStream.Subscriber s = new TapStream.Subscriber(2);
+        for (int i = 0; i < 5; i++)
+            s.offer(new byte[]{(byte) i});
+        // Oldest are dropped, publishing does not wait
+        assertEquals(3, s.dropped.sum());
+        assertEquals(3, s.events.poll()[0]);
+        assertEquals(4, s.events.poll()[0]);
+    }
+}
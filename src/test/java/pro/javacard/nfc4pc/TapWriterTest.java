@@ -0,0 +1,114 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TapWriterTest {
+    static NFCTapData tap(String url) {
+        TapTimings timings = new TapTimings();
+        timings.record(TapTimings.Stage.UID, 1500);
+        timings.record(TapTimings.Stage.TYPE2, 2500);
+        return new NFCTapData("Reader \"1\"", UID.of(new byte[]{1, 2, 3, 4}), "type2", url, 12_000_000, null, timings);
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        Path file = Files.createTempFile("taps", ".ndjson");
+        try {
+            try (TapWriter writer = TapWriter.open(file.toString())) {
+                assertFalse(writer.stdout());
+                writer.write(tap("https://example.com/a"));
+                // Flushed after every tap
+                assertEquals(1, Files.readAllLines(file).size());
+                writer.write(tap("https://example.com/b"));
+            }
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(2, lines.size());
+            String line = lines.get(0);
+            assertTrue(line.startsWith("{\"uid\":\"01020304\",\"url\":\"https://example.com/a\",\"reader\":\"Reader \\\"1\\\"\",\"readtime\":\"12\","), line);
+            assertTrue(line.endsWith(",\"type\":\"type2\",\"timings\":{\"uid\":1500,\"type2\":2500}}"), line);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testUnixSocket() throws Exception {
+        Path dir = Files.createTempDirectory("nfc4pc");
+        Path socket = dir.resolve("taps.sock");
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            try (TapWriter writer = TapWriter.open(TapWriter.UNIX + socket);
+                 SocketChannel client = server.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8))) {
+                writer.write(tap("https://example.com/a"));
+                assertTrue(in.readLine().contains("\"url\":\"https://example.com/a\""));
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        Path dir = Files.createTempDirectory("nfc4pc");
+        Path socket = dir.resolve("taps.sock");
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            try (TapWriter writer = TapWriter.open(TapWriter.UNIX + socket)) {
+                server.accept().close();
+                // The first write after the other end went away fails, the next one connects again
+                server.configureBlocking(false);
+                SocketChannel client = null;
+                for (int i = 0; i < 10 && client == null; i++) {
+                    writer.write(tap("https://example.com/b"));
+                    client = server.accept();
+                }
+                assertNotNull(client);
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8))) {
+                    assertTrue(in.readLine().startsWith("{\"uid\":\"01020304\",\"url\":\"https://example.com/b\""));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        AtomicInteger opened = new AtomicInteger();
+        TapWriter writer = new TapWriter(() -> {
+            if (opened.getAndIncrement() > 0)
+                throw new IOException("gone");
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("broken");
+                }
+            };
+        }, "test");
+        for (int i = 0; i < 5; i++)
+            writer.write(tap("https://example.com/a"));
+        // Opened once, then tried again once right after the failed write, then waits
+        assertEquals(2, opened.get());
+        writer.close();
+    }
+}
@@ -0,0 +1,79 @@
+package pro.javacard.nfc4pc;
+
+import apdu4j.core.HexUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UIDTableTest {
+    @TempDir
+    Path dir;
+
+    static UID uid(String hex) {
+        return UID.of(HexUtils.hex2bin(hex));
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        Path file = dir.resolve("uids.txt");
+        Files.writeString(file, """
+                # badges
+                01020304 https://example.com/a
+                04A1B2C3D4E5F6,https://example.com/b?x=1
+                0102030405060708090A = https://example.com/\u00e4
+
+                0102030 https://example.com/odd
+                010203040506 https://example.com/five
+                01020304;https://example.com/again
+                """);
+        try (UIDTable table = new UIDTable(file)) {
+            assertEquals(3, table.size());
+            // Later line wins
+            assertEquals("https://example.com/again", table.lookup(uid("01020304")));
+            assertEquals("https://example.com/b?x=1", table.lookup(uid("04a1b2c3d4e5f6")));
+            assertEquals("https://example.com/\u00e4", table.lookup(uid("0102030405060708090A")));
+            assertNull(table.lookup(uid("01020305")));
+            // Same leading bytes, different length
+            assertNull(table.lookup(uid("01020304000000")));
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        Path file = dir.resolve("uids.txt");
+        Files.writeString(file, "01020304 https://example.com/a\n");
+        try (UIDTable table = new UIDTable(file)) {
+            Files.writeString(file, "01020304 https://example.com/b\n01020305 https://example.com/c\n");
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(10)));
+            table.reload();
+            assertEquals(2, table.size());
+            assertEquals("https://example.com/b", table.lookup(uid("01020304")));
+
+            // Missing file keeps the table
+            Files.delete(file);
+            table.reload();
+            assertEquals("https://example.com/c", table.lookup(uid("01020305")));
+        }
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        Path file = dir.resolve("uids.txt");
+        Files.writeString(file, "01020304 https://example.com/a\n");
+        try (UIDTable table = new UIDTable(file)) {
+            NFCTapData tap = NFC4PC.resolve(new NFCTapData("reader", uid("01020304"), null, 0, null), table);
+            assertEquals("https://example.com/a", tap.location());
+            assertEquals("reader", tap.reader());
+            // URL on the tag is kept
+            tap = NFC4PC.resolve(new NFCTapData("reader", uid("01020304"), "https://example.com/tag", 0, null), table);
+            assertEquals("https://example.com/tag", tap.location());
+            assertNull(NFC4PC.resolve(new NFCTapData("reader", uid("01020305"), null, 0, null), table).location());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pro.javacard.nfc4pc;
+
+import apdu4j.core.HexUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebHookEncoderTest {
+    static Map<String, String> payload() {
+        Map<String, String> payload = new LinkedHashMap<>();
+        payload.put("uid", "04a1b2c3d4e5f6");
+        payload.put("url", "https://example.com/?a=1&b=\u00e4 \u00f6\"\u20ac\ud83d\ude00");
+        payload.put("error", "line\nbreak\u0001");
+        return payload;
+    }
+
+    static String encode(WebHookEncoder.Format format, Map<String, String> payload) {
+        WebHookEncoder encoder = new WebHookEncoder(format);
+        WebHookEncoder.Buffer b = encoder.encode(payload);
+        String s = b.toString(StandardCharsets.UTF_8);
+        encoder.release(b);
+        return s;
+    }
+
+    @Test
+    public void testFormMatchesURLEncoder() {
+        assertEquals(WebHooks.formdata(payload()), encode(WebHookEncoder.Format.FORM, payload()));
+    }
+
+    @Test
+    public void testJSON() {
+        assertEquals("{\"uid\":\"04a1b2c3d4e5f6\",\"url\":\"https://example.com/?a=1&b=\u00e4 \u00f6\\\"\u20ac\ud83d\ude00\",\"error\":\"line\\nbreak\\u0001\"}", encode(WebHookEncoder.Format.JSON, payload()));
+    }
+
+    @Test
+    public void testCBOR() {
+        WebHookEncoder encoder = new WebHookEncoder(WebHookEncoder.Format.CBOR);
+        WebHookEncoder.Buffer b = encoder.encode(Map.of("uid", "01020304"));
+        // {"uid": "01020304"}
+        assertEquals("A16375696468" + "3031303230333034", HexUtils.bin2hex(b.toByteArray()).toUpperCase());
+
+        String url = "https://example.com/" + "x".repeat(300);
+        b = encoder.encode(Map.of("url", url));
+        byte[] encoded = b.toByteArray();
+        // Map of 1, text of 3, text with two byte length
+        assertEquals("A16375726C790140", HexUtils.bin2hex(encoded).substring(0, 16).toUpperCase());
+        assertEquals(8 + url.length(), encoded.length);
+    }
+
+    @Test
+    public void testUTF8Length() {
+        for (String s : payload().values())
+            assertEquals(s.getBytes(StandardCharsets.UTF_8).length, WebHookEncoder.utf8Length(s));
+    }
+
+    @Test
+    public void testRecycling() {
+        WebHookEncoder encoder = new WebHookEncoder(WebHookEncoder.Format.JSON);
+        WebHookEncoder.Buffer b = encoder.encode(payload());
+        encoder.release(b);
+        assertSame(b, encoder.acquire());
+        assertEquals(0, b.size());
+        // Still read by a request that timed out
+        b.abandon();
+        encoder.release(b);
+        assertNotSame(b, encoder.acquire());
+    }
+}
@@ -0,0 +1,155 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebHookQueueTest {
+    @TempDir
+    Path dir;
+
+    // Nothing gets sent without in-flight slots, so queue behaviour can be observed
+    static final URI NOWHERE = URI.create("http://127.0.0.1:9/");
+
+    @Test
+    public void testDropOldest() {
+        WebHookQueue q = new WebHookQueue(NOWHERE, null, 0, 2, WebHookQueue.Overflow.DROP_OLDEST, null);
+        var first = q.submit(Map.of("uid", "01020304"));
+        q.submit(Map.of("uid", "01020305"));
+        q.submit(Map.of("uid", "01020306"));
+        assertFalse(first.join());
+        assertEquals(2, q.depth());
+        assertEquals(1, q.dropped.sum());
+        assertFalse(q.drain(Duration.ofMillis(10)));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        Path spill = Files.createTempFile("nfc4pc", ".spill");
+        try {
+            WebHookQueue q = new WebHookQueue(NOWHERE, null, 0, 1, WebHookQueue.Overflow.SPILL, spill);
+            q.submit(Map.of("uid", "01020304"));
+            assertFalse(q.submit(Map.of("uid", "01020305")).join());
+            assertEquals("uid=01020305\n", Files.readString(spill));
+        } finally {
+            Files.delete(spill);
+        }
+    }
+
+    @Test
+    public void testOpenBreakerSpools() throws Exception {
+        WebHookQueue q = new WebHookQueue(NOWHERE, null, 1, 1, WebHookQueue.Overflow.BLOCK, null)
+                .spooled(new WebHookSpool(dir, WebHookSpool.DEFAULT_SEGMENT, 1024 * 1024), Duration.ofHours(1));
+        for (int i = 0; i < WebHookQueue.BREAKER_THRESHOLD; i++)
+            q.breaker.failure();
+        // More taps than the queue holds, and none of them waits for space
+        CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 10; i++)
+                assertFalse(q.submit(Map.of("uid", "0102030" + i)).join());
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals(0, q.depth());
+        assertEquals(10, q.spoolSize());
+        q.close();
+    }
+
+    @Test
+    public void testBreakerCountsTaps() throws Exception {
+        WebHookQueue q = new WebHookQueue(NOWHERE, null, 2, 4, WebHookQueue.Overflow.BLOCK, null).retrying(3);
+        var first = q.submit(Map.of("uid", "01020304"));
+        var second = q.submit(Map.of("uid", "01020305"));
+        assertFalse(first.get(10, TimeUnit.SECONDS));
+        assertFalse(second.get(10, TimeUnit.SECONDS));
+        // Eight failed attempts, but two failed taps, less than the threshold
+        assertEquals(6, q.retried.sum());
+        assertEquals(CircuitBreaker.State.CLOSED, q.breaker.state());
+        q.close();
+    }
+
+    @Test
+    public void testRequestNotBuilt() throws Exception {
+        // One slot only, so a slot not given back would hold up the second tap
+        WebHookQueue q = new WebHookQueue(URI.create("ftp://127.0.0.1/"), null, 1, 4, WebHookQueue.Overflow.BLOCK, null);
+        assertFalse(q.submit(Map.of("uid", "01020304")).get(5, TimeUnit.SECONDS));
+        assertFalse(q.submit(Map.of("uid", "01020305")).get(5, TimeUnit.SECONDS));
+        assertEquals(2, q.failed.sum());
+        assertTrue(q.drain(Duration.ofSeconds(1)));
+        q.close();
+    }
+
+    @Test
+    public void testCheck() {
+        WebHooks.check(NOWHERE, "Bearer 123");
+        assertThrows(IllegalArgumentException.class, () -> WebHooks.check(URI.create("ftp://127.0.0.1/"), null));
+        assertThrows(IllegalArgumentException.class, () -> WebHooks.check(URI.create("example.com/hook"), null));
+        assertThrows(IllegalArgumentException.class, () -> WebHooks.check(NOWHERE, "Bearer 123\n"));
+    }
+
+    @Test
+    public void testOverflowNames() {
+        assertEquals(WebHookQueue.Overflow.DROP_OLDEST, WebHookQueue.Overflow.parse("drop-oldest"));
+        assertThrows(IllegalArgumentException.class, () -> new WebHookQueue(NOWHERE, null, 1, 1, WebHookQueue.Overflow.SPILL, null));
+    }
+
+    @Test
+    public void testBatchEncoding() {
+        var items = List.of(
+                new WebHookQueue.Pending(Map.of("uid", "01020304"), null, 0),
+                new WebHookQueue.Pending(Map.of("url", "https://example.com/?q=\"x\""), null, 0));
+        assertEquals("[{\"uid\":\"01020304\"},{\"url\":\"https://example.com/?q=\\\"x\\\"\"}]", encode(WebHookQueue.Batch.JSON, items));
+        assertEquals("{\"uid\":\"01020304\"}\n{\"url\":\"https://example.com/?q=\\\"x\\\"\"}\n", encode(WebHookQueue.Batch.NDJSON, items));
+    }
+
+    static String encode(WebHookQueue.Batch batch, List<WebHookQueue.Pending> items) {
+        WebHookEncoder.Buffer out = new WebHookEncoder.Buffer();
+        batch.encode(out, items);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(WebHookQueue.backoff(0) <= 250);
+            assertTrue(WebHookQueue.backoff(10) <= 10_000);
+            assertTrue(WebHookQueue.backoff(64) >= 0);
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, Duration.ZERO);
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        // Single trial after cool down
+        assertTrue(breaker.allow());
+        assertFalse(breaker.allow());
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.allow());
+        breaker.success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(2, breaker.opened.sum());
+        assertEquals(2, breaker.halfOpened.sum());
+        assertEquals(1, breaker.closed.sum());
+    }
+
+    @Test
+    public void testTargetOptions() {
+        var opts = CLIOptions.parser.parse("--webhook", "http://a.example/", "--webhook", "http://b.example/", "--webhook-inflight", "2", "--webhook-inflight", "8");
+        assertEquals(2, (int) NFC4PC.nth(opts, CLIOptions.OPT_WEBHOOK_INFLIGHT, 0));
+        assertEquals(8, (int) NFC4PC.nth(opts, CLIOptions.OPT_WEBHOOK_INFLIGHT, 1));
+        assertEquals(1000, (int) NFC4PC.nth(opts, CLIOptions.OPT_WEBHOOK_QUEUE, 1));
+    }
+}
@@ -0,0 +1,100 @@
+package pro.javacard.nfc4pc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebHookSpoolTest {
+    @TempDir
+    Path dir;
+
+    static void append(WebHookSpool spool, String payload) throws Exception {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        spool.append(bytes, 0, bytes.length);
+    }
+
+    static Optional<String> peek(WebHookSpool spool) {
+        return spool.peek().map(r -> new String(r.payload(), StandardCharsets.UTF_8));
+    }
+
+    static void ack(WebHookSpool spool) {
+        spool.ack(spool.peek().orElseThrow());
+    }
+
+    long segments() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        try (WebHookSpool spool = new WebHookSpool(dir, 64, 1024)) {
+            append(spool, "uid=01020304");
+            append(spool, "uid=01020305");
+            append(spool, "uid=01020306");
+            assertEquals(Optional.of("uid=01020304"), peek(spool));
+            ack(spool);
+        }
+        try (WebHookSpool spool = new WebHookSpool(dir, 64, 1024)) {
+            assertEquals(2, spool.size());
+            assertEquals(Optional.of("uid=01020305"), peek(spool));
+            ack(spool);
+            append(spool, "uid=01020307");
+            assertEquals(Optional.of("uid=01020306"), peek(spool));
+            ack(spool);
+            assertEquals(Optional.of("uid=01020307"), peek(spool));
+            ack(spool);
+            assertEquals(Optional.empty(), peek(spool));
+            assertEquals(0, spool.size());
+        }
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        try (WebHookSpool spool = new WebHookSpool(dir, 64, 1024)) {
+            // 16 bytes per record, 4 per segment
+            for (int i = 0; i < 10; i++)
+                append(spool, String.format("uid=%08d", i));
+            assertEquals(3, segments());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Optional.of(String.format("uid=%08d", i)), peek(spool));
+                ack(spool);
+            }
+            assertEquals(1, segments());
+        }
+    }
+
+    @Test
+    public void testSizeCap() throws Exception {
+        try (WebHookSpool spool = new WebHookSpool(dir, 64, 128)) {
+            for (int i = 0; i < 10; i++)
+                append(spool, String.format("uid=%08d", i));
+            // Oldest segment gone
+            assertEquals(4, spool.dropped.get());
+            assertEquals(6, spool.size());
+            assertEquals(Optional.of("uid=00000004"), peek(spool));
+        }
+    }
+
+    @Test
+    public void testDroppedWhileSending() throws Exception {
+        try (WebHookSpool spool = new WebHookSpool(dir, 64, 128)) {
+            for (int i = 0; i < 8; i++)
+                append(spool, String.format("uid=%08d", i));
+            WebHookSpool.Record sending = spool.peek().orElseThrow();
+            // Segment of the record being sent goes to make room
+            append(spool, "uid=00000008");
+            spool.ack(sending);
+            assertEquals(5, spool.size());
+            assertEquals(Optional.of("uid=00000004"), peek(spool));
+        }
+    }
+}